@@ -8,6 +8,7 @@ import org.bukkit.block.BlockFace;
 import org.bukkit.block.BlockState;
 import org.bukkit.block.Sign;
 import org.bukkit.entity.Player;
+import org.bukkit.inventory.Inventory;
 import org.bukkit.inventory.InventoryHolder;
 
 import com.wolvereness.physicalshop.exception.InvalidExchangeException;
@@ -18,6 +19,7 @@ import com.wolvereness.physicalshop.exception.InvalidSignException;
  */
 public class ChestShop extends Shop {
 	private final InventoryHolder chest;
+	private final StockCache stock;
 	/**
 	 * Creates a Shop with a chest
 	 * @param sign sign to consider
@@ -34,6 +36,7 @@ public class ChestShop extends Shop {
 				|| plugin.getPluginConfig().isBlacklistedShopType(chest.getType())
 				) throw new InvalidSignException();
 		this.chest = (InventoryHolder) chest;
+		this.stock = plugin.getStockCache();
 	}
 	/**
 	 * Creates a Shop with the specified InventoryHolder
@@ -51,39 +54,13 @@ public class ChestShop extends Shop {
 				&& plugin.getPluginConfig().isBlacklistedShopType(((BlockState) inventory).getType())
 				) throw new InvalidSignException();
 		this.chest = inventory;
+		this.stock = plugin.getStockCache();
 	}
-	@Override
-	protected boolean buy(final Player player, final PhysicalShop plugin) {
-		if (!canBuy()) {
-			plugin.getLocale().sendMessage(player, NO_BUY);
-			return false;
-		}
-		final ShopItemStack[] items = InventoryHelpers.getItems(chest.getInventory());
-
-		try {
-			InventoryHelpers.exchange(chest.getInventory(), getBuyCurrency().getStack(getBuyRate().getPrice()), getMaterial().getStack(getBuyRate().getAmount()));
-		} catch (final InvalidExchangeException e) {
-			switch (e.getType()) {
-			case ADD:
-				plugin.getLocale().sendMessage(player, CHEST_INVENTORY_FULL);
-				break;
-			case REMOVE:
-				plugin.getLocale().sendMessage(
-					player,
-					NOT_ENOUGH_SHOP_ITEMS,
-					getMaterial().toString(plugin.getMaterialConfig())
-					);
-				break;
-			}
-
-			return false;
-		}
-
-		if (!super.buy(player, plugin)) {
-			InventoryHelpers.setItems(chest.getInventory(), items);
-			return false;
-		}
-		return true;
+	/**
+	 * @return the container holding this shop's stock
+	 */
+	public InventoryHolder getContainer() {
+		return chest;
 	}
 	@Override
 	/**
@@ -91,11 +68,21 @@ public class ChestShop extends Shop {
 	 * @return
 	 */
 	public int getShopBuyCapital() {
-		return InventoryHelpers.getCount(chest.getInventory(), getBuyCurrency());
+		return stock.getCount(chest, getBuyCurrency());
+	}
+	/**
+	 * @return the amount of the shop's material, buying currency and selling currency it holds, in that order
+	 */
+	protected int[] getShopCounts() {
+		return stock.getCounts(chest, getMaterial(), getBuyCurrency(), getSellCurrency());
+	}
+	@Override
+	protected Inventory getShopInventory() {
+		return chest.getInventory();
 	}
 	@Override
 	public int getShopItems() {
-		return InventoryHelpers.getCount(chest.getInventory(), getMaterial());
+		return stock.getCount(chest, getMaterial());
 	}
 	@Override
 	/**
@@ -103,7 +90,7 @@ public class ChestShop extends Shop {
 	 * @return
 	 */
 	public int getShopSellCapital() {
-		return InventoryHelpers.getCount(chest.getInventory(), getSellCurrency());
+		return stock.getCount(chest, getSellCurrency());
 	}
 	@Override
 	public boolean isShopBlock(final Block block) {
@@ -113,18 +100,15 @@ public class ChestShop extends Shop {
 				&& ((BlockState) chest).getBlock().equals(block);
 	}
 	@Override
-	public boolean sell(final Player player, final PhysicalShop plugin) {
-		if (!canSell()) {
-			plugin.getLocale().sendMessage(player, NO_SELL);
-			return false;
-		}
-		final ShopItemStack[] items = InventoryHelpers.getItems(chest.getInventory());
-
+	protected boolean planBuy(final Player player, final PhysicalShop plugin, final Transaction transaction, final int multiple) {
 		try {
-			InventoryHelpers.exchange(
-				chest.getInventory(),
-				getMaterial().getStack(getSellRate().getAmount()),
-				getSellCurrency().getStack(getSellRate().getPrice())
+			planContainer(
+				transaction,
+				chest,
+				getBuyCurrency(),
+				getBuyRate().getPrice() * multiple,
+				getMaterial(),
+				getBuyRate().getAmount() * multiple
 				);
 		} catch (final InvalidExchangeException e) {
 			switch (e.getType()) {
@@ -132,43 +116,101 @@ public class ChestShop extends Shop {
 				plugin.getLocale().sendMessage(player, CHEST_INVENTORY_FULL);
 				break;
 			case REMOVE:
-				plugin.getLocale().sendMessage(player, NOT_ENOUGH_SHOP_MONEY, getSellCurrency().toString(plugin.getMaterialConfig()));
+				plugin.getLocale().sendMessage(
+					player,
+					NOT_ENOUGH_SHOP_ITEMS,
+					getMaterial().toString(plugin.getMaterialConfig())
+					);
 				break;
 			}
 
 			return false;
 		}
+		return true;
+	}
+	/**
+	 * Plans the shop's side of a trade in one of its containers. Once committed, the cached counts of said container are adjusted to match.
+	 * @param transaction the trade to add the shop's side to
+	 * @param container the container to trade from
+	 * @param added the material going into the container
+	 * @param addedAmount the amount going into the container
+	 * @param removed the material coming out of the container
+	 * @param removedAmount the amount coming out of the container
+	 * @throws InvalidExchangeException if said container cannot make the trade
+	 */
+	protected void planContainer(
+			final Transaction transaction,
+			final InventoryHolder container,
+			final ShopMaterial added,
+			final int addedAmount,
+			final ShopMaterial removed,
+			final int removedAmount
+			) throws InvalidExchangeException {
+		final Inventory inventory = container.getInventory();
+		transaction.add(inventory, ExchangePlan.plan(
+			inventory,
+			added.getStack(addedAmount),
+			removed.getStack(removedAmount)
+			)).onCommit(new Runnable() {
+				public void run() {
+					stock.adjust(container, added, addedAmount);
+					stock.adjust(container, removed, -removedAmount);
+				}});
+	}
+	@Override
+	protected boolean planSell(final Player player, final PhysicalShop plugin, final Transaction transaction, final int multiple) {
+		try {
+			planContainer(
+				transaction,
+				chest,
+				getMaterial(),
+				getSellRate().getAmount() * multiple,
+				getSellCurrency(),
+				getSellRate().getPrice() * multiple
+				);
+		} catch (final InvalidExchangeException e) {
+			switch (e.getType()) {
+			case ADD:
+				plugin.getLocale().sendMessage(player, CHEST_INVENTORY_FULL);
+				break;
+			case REMOVE:
+				plugin.getLocale().sendMessage(player, NOT_ENOUGH_SHOP_MONEY, getSellCurrency().toString(plugin.getMaterialConfig()));
+				break;
+			}
 
-		if (!super.sell(player, plugin)) {
-			InventoryHelpers.setItems(chest.getInventory(), items);
 			return false;
 		}
 		return true;
 	}
 	@Override
 	public void status(final Player p, final PhysicalShop plugin) {
+		final int[] counts = getShopCounts();
+		final int items = counts[0];
+		final int buyCapital = counts[1];
+		final int sellCapital = counts[2];
+
 		if (!plugin.getPluginConfig().isDetailedOutput()) {
 			if (!canSell()) {
 				plugin.getLocale().sendMessage(
 					p,
 					STATUS_ONE_MATERIAL,
-					getShopItems(),
+					items,
 					getMaterial().toString(plugin.getMaterialConfig())
 					);
 			} else if (!canBuy()) {
 				plugin.getLocale().sendMessage(
 					p,
 					STATUS_ONE_MATERIAL,
-					getShopSellCapital(),
+					sellCapital,
 					getSellCurrency().toString(plugin.getMaterialConfig())
 					);
 			} else {
 				plugin.getLocale().sendMessage(
 					p,
 					STATUS_ONE_CURRENCY,
-					getShopSellCapital(),
+					sellCapital,
 					getSellCurrency().toString(plugin.getMaterialConfig()),
-					getShopItems(),
+					items,
 					getMaterial().toString(plugin.getMaterialConfig())
 					);
 			}
@@ -176,34 +218,34 @@ public class ChestShop extends Shop {
 			plugin.getLocale().sendMessage(
 				p,
 				STATUS_ONE_CURRENCY,
-				getShopSellCapital(),
+				sellCapital,
 				getSellCurrency().toString(plugin.getMaterialConfig()),
-				getShopItems(),
+				items,
 				getMaterial().toString(plugin.getMaterialConfig())
 				);
 		} else if (!canSell() || getSellCurrency().equals(getBuyCurrency())) {
 			plugin.getLocale().sendMessage(
 				p,
 				STATUS_ONE_CURRENCY,
-				getShopBuyCapital(),
+				buyCapital,
 				getBuyCurrency().toString(plugin.getMaterialConfig()),
-				getShopItems(),
+				items,
 				getMaterial().toString(plugin.getMaterialConfig())
 				);
 		} else {
 			plugin.getLocale().sendMessage(
 				p,
 				STATUS,
-				getShopBuyCapital(),
+				buyCapital,
 				getBuyCurrency().toString(plugin.getMaterialConfig()),
-				getShopSellCapital(),
+				sellCapital,
 				getSellCurrency().toString(plugin.getMaterialConfig()),
-				getShopItems(),
+				items,
 				getMaterial().toString(plugin.getMaterialConfig())
 				);
 		}
 
-		super.status(p, plugin);
+		super.status(p, plugin, items, sellCapital);
 	}
 
 }
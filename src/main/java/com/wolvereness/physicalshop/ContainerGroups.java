@@ -0,0 +1,451 @@
+package com.wolvereness.physicalshop;
+
+import static org.bukkit.Material.*;
+import static org.bukkit.block.BlockFace.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.bukkit.Chunk;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockFace;
+import org.bukkit.block.BlockState;
+import org.bukkit.block.DoubleChest;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.block.BlockBreakEvent;
+import org.bukkit.event.block.BlockPlaceEvent;
+import org.bukkit.event.block.SignChangeEvent;
+import org.bukkit.event.entity.EntityExplodeEvent;
+import org.bukkit.event.world.ChunkLoadEvent;
+import org.bukkit.event.world.ChunkUnloadEvent;
+import org.bukkit.event.world.WorldUnloadEvent;
+import org.bukkit.inventory.InventoryHolder;
+
+import com.google.common.collect.ImmutableList;
+import com.wolvereness.physicalshop.config.StandardConfig.ShopBlockType;
+import com.wolvereness.physicalshop.events.ShopDestructionEvent;
+import com.wolvereness.util.LongObjectMap;
+
+/**
+ * Remembers which containers are linked to each linked shop, and which shop each linked container belongs to.<br>
+ * A group is found by spreading out from the container under the sign through touching
+ * containers, skipping any that are under another shop or already in another group,
+ * and any that the shop's owner may not use, being locked from them or protected by
+ * a shop of another owner.
+ * Both halves of a double chest share one inventory, so they make up a single member.
+ * It is found the first time it is needed, either by its shop or by a check on one of
+ * its containers, and dropped when a block in or next to it changes, or when a chunk
+ * it reaches into unloads. Containers found to be in no group are remembered by chunk,
+ * until a block, group or chunk within reach of them changes.
+ * Licensed under GNU GPL v3
+ * @author Wolfe
+ */
+public class ContainerGroups implements Listener {
+	private static class Group {
+		private final long[] chunks;
+		private final InventoryHolder[] containers;
+		private final long[] positions;
+		private final Block sign;
+
+		Group(final Block sign, final InventoryHolder[] containers, final long[] positions, final long[] chunks) {
+			this.sign = sign;
+			this.containers = containers;
+			this.positions = positions;
+			this.chunks = chunks;
+		}
+	}
+
+	private static class GroupWorld {
+		/**
+		 * The groups reaching into each chunk, keyed by {@link ShopRegistry#chunkKey(int, int)}
+		 */
+		private final LongObjectMap<List<Group>> chunks = new LongObjectMap<List<Group>>();
+		private final LongObjectMap<Group> groups = new LongObjectMap<Group>();
+		private final LongObjectMap<Group> members = new LongObjectMap<Group>();
+		/**
+		 * The containers known to be in no group, by chunk, then by position
+		 */
+		private final LongObjectMap<LongObjectMap<Block>> unlinked = new LongObjectMap<LongObjectMap<Block>>();
+	}
+
+	private static final List<BlockFace> LINK_DIRECTIONS = ImmutableList.of(
+			NORTH,
+			SOUTH,
+			EAST,
+			WEST,
+			DOWN,
+			UP);
+
+	/**
+	 * @param container the container to consider
+	 * @return the halves of the double chest said container is part of, left first, or null if it is not part of one
+	 */
+	private static Block[] getHalves(final InventoryHolder container) {
+		final InventoryHolder holder = container.getInventory().getHolder();
+		if (!(holder instanceof DoubleChest)) return null;
+		final InventoryHolder left = ((DoubleChest) holder).getLeftSide();
+		final InventoryHolder right = ((DoubleChest) holder).getRightSide();
+		if (!(left instanceof BlockState) || !(right instanceof BlockState)) return null;
+		return new Block[] { ((BlockState) left).getBlock(), ((BlockState) right).getBlock() };
+	}
+
+	private final PhysicalShop plugin;
+	private final Map<World, GroupWorld> worlds = new HashMap<World, GroupWorld>();
+
+	/**
+	 * @param plugin The active PhysicalShop plugin
+	 */
+	public ContainerGroups(final PhysicalShop plugin) {
+		this.plugin = plugin;
+	}
+
+	/**
+	 * Forgets every group
+	 */
+	public void clear() {
+		worlds.clear();
+	}
+
+	private Group discover(final GroupWorld world, final ChestShop shop, final int limit) {
+		final Block sign = shop.getSign().getBlock();
+		final InventoryHolder primary = shop.getContainer();
+		final List<Block> found = new ArrayList<Block>(limit);
+		final List<InventoryHolder> containers = new ArrayList<InventoryHolder>(limit);
+		final LongObjectMap<Block> visited = new LongObjectMap<Block>();
+		final Block start = sign.getRelative(DOWN);
+		found.add(start);
+		containers.add(primary);
+		visited.put(ShopKey.pack(start), start);
+		final Block[] primaryHalves = getHalves(primary);
+		if (primaryHalves != null) {
+			for (final Block half : primaryHalves) {
+				if (	!visited.containsKey(ShopKey.pack(half))
+						&& !world.members.containsKey(ShopKey.pack(half))
+						&& !isShopAbove(half)
+						&& mayLink(shop, half)
+						) {
+					found.add(half);
+				}
+				visited.put(ShopKey.pack(half), half);
+			}
+		}
+		for (int i = 0; i < found.size() && containers.size() < limit; i++) {
+			final Block from = found.get(i);
+			for (final BlockFace face : LINK_DIRECTIONS) {
+				final Block next = getLinkable(from, face);
+				if (next == null) {
+					continue;
+				}
+				final long position = ShopKey.pack(next);
+				if (visited.containsKey(position)) {
+					continue;
+				}
+				visited.put(position, next);
+				if (	plugin.getPluginConfig().getBlockType(next.getType()) != ShopBlockType.CONTAINER
+						|| world.members.containsKey(position)
+						|| isShopAbove(next)
+						|| !mayLink(shop, next)
+						) {
+					continue;
+				}
+				final BlockState state = next.getState();
+				if (!(state instanceof InventoryHolder)) {
+					continue;
+				}
+				final Block[] halves = getHalves((InventoryHolder) state);
+				if (halves == null) {
+					found.add(next);
+					containers.add((InventoryHolder) state);
+				} else {
+					final Block other = halves[0].equals(next) ? halves[1] : halves[0];
+					visited.put(ShopKey.pack(other), other);
+					if (world.members.containsKey(ShopKey.pack(other)) || isShopAbove(other) || !mayLink(shop, other)) {
+						continue;
+					}
+					found.add(next);
+					found.add(other);
+					// The left half stands for the whole double chest, so its counts are only kept once
+					containers.add(halves[0].equals(next) ? (InventoryHolder) state : (InventoryHolder) other.getState());
+				}
+				if (containers.size() == limit) {
+					break;
+				}
+			}
+		}
+		final long[] positions = new long[found.size()];
+		final LongObjectMap<Block> chunks = new LongObjectMap<Block>();
+		for (int i = 0; i < positions.length; i++) {
+			final Block block = found.get(i);
+			positions[i] = ShopKey.pack(block);
+			chunks.put(ShopRegistry.chunkKey(block.getX() >> 4, block.getZ() >> 4), block);
+		}
+		final long[] chunkKeys = new long[chunks.size()];
+		int i = 0;
+		for (final Block block : chunks.values()) {
+			chunkKeys[i++] = ShopRegistry.chunkKey(block.getX() >> 4, block.getZ() >> 4);
+		}
+		return new Group(sign, containers.toArray(new InventoryHolder[containers.size()]), positions, chunkKeys);
+	}
+
+	private void drop(final GroupWorld world, final Group group) {
+		if (group == null) return;
+		// Found again, the group may take in containers remembered as unlinked
+		forgetUnlinked(world, group.sign.getX(), group.sign.getZ(), group.sign.getX(), group.sign.getZ());
+		if (world.groups.get(ShopKey.pack(group.sign)) == group) {
+			world.groups.remove(ShopKey.pack(group.sign));
+		}
+		for (final long position : group.positions) {
+			if (world.members.get(position) == group) {
+				world.members.remove(position);
+			}
+		}
+		for (final long chunk : group.chunks) {
+			final List<Group> groups = world.chunks.get(chunk);
+			if (groups == null) {
+				continue;
+			}
+			groups.remove(group);
+			if (groups.isEmpty()) {
+				world.chunks.remove(chunk);
+			}
+		}
+	}
+
+	/**
+	 * Forgets the unlinked containers within reach of an area
+	 */
+	private void forgetUnlinked(final GroupWorld world, final int minX, final int minZ, final int maxX, final int maxZ) {
+		if (world.unlinked.isEmpty()) return;
+		final int reach = plugin.getPluginConfig().getLinkedContainers() * 2;
+		for (int chunkX = (minX - reach) >> 4; chunkX <= (maxX + reach) >> 4; chunkX++) {
+			for (int chunkZ = (minZ - reach) >> 4; chunkZ <= (maxZ + reach) >> 4; chunkZ++) {
+				world.unlinked.remove(ShopRegistry.chunkKey(chunkX, chunkZ));
+			}
+		}
+	}
+
+	/**
+	 * Finds the containers linked to a shop, searching for them if they are not yet known
+	 * @param shop the shop to consider
+	 * @param limit the most containers a group may have
+	 * @return the containers, starting with the one under the sign
+	 */
+	public InventoryHolder[] getContainers(final ChestShop shop, final int limit) {
+		final Block sign = shop.getSign().getBlock();
+		GroupWorld world = worlds.get(sign.getWorld());
+		if (world == null) {
+			worlds.put(sign.getWorld(), world = new GroupWorld());
+		}
+		Group group = world.groups.get(ShopKey.pack(sign));
+		if (group == null) {
+			group = discover(world, shop, limit);
+			world.groups.put(ShopKey.pack(sign), group);
+			for (final long position : group.positions) {
+				world.members.put(position, group);
+			}
+			for (final long chunk : group.chunks) {
+				List<Group> groups = world.chunks.get(chunk);
+				if (groups == null) {
+					world.chunks.put(chunk, groups = new ArrayList<Group>(1));
+				}
+				groups.add(group);
+			}
+		}
+		return group.containers;
+	}
+
+	private Block getLinkable(final Block from, final BlockFace face) {
+		final World world = from.getWorld();
+		final int x = from.getX() + face.getModX(), y = from.getY() + face.getModY(), z = from.getZ() + face.getModZ();
+		if (	y < 0
+				|| y >= world.getMaxHeight()
+				|| !world.isChunkLoaded(x >> 4, z >> 4)
+				) return null;
+		return world.getBlockAt(x, y, z);
+	}
+
+	/**
+	 * Finds the shop a container is linked to. If its group is not known, the groups of the
+	 * linked shops within reach of said container are found first.
+	 * @param container the container to check
+	 * @return the shop said container is linked to, or null if it is not linked to one
+	 */
+	public Shop getOwner(final Block container) {
+		final Group group = getGroup(container);
+		return group == null ? null : ShopHelpers.getShop(group.sign, plugin);
+	}
+
+	private Group getGroup(final Block container) {
+		final int limit = plugin.getPluginConfig().getLinkedContainers();
+		if (limit <= 1 || plugin.getPluginConfig().getBlockType(container.getType()) != ShopBlockType.CONTAINER) return null;
+		GroupWorld world = worlds.get(container.getWorld());
+		final long target = ShopKey.pack(container);
+		final long chunk = ShopRegistry.chunkKey(container.getX() >> 4, container.getZ() >> 4);
+		if (world != null) {
+			if (world.members.containsKey(target)) return world.members.get(target);
+			final LongObjectMap<Block> unlinked = world.unlinked.get(chunk);
+			if (unlinked != null && unlinked.containsKey(target)) return null;
+		}
+
+		// Any group holding the container has its sign over a container along a path that does not
+		// pass under another shop. The path has at most limit members, each one or two blocks long.
+		final LongObjectMap<Block> visited = new LongObjectMap<Block>();
+		List<Block> ring = new ArrayList<Block>();
+		ring.add(container);
+		visited.put(target, container);
+		for (int distance = 0; distance < limit * 2 && !ring.isEmpty(); distance++) {
+			final List<Block> next = new ArrayList<Block>();
+			for (final Block block : ring) {
+				final Block above = block.getRelative(UP);
+				if (above.getType() == SIGN_POST || above.getType() == WALL_SIGN) {
+					final Shop shop = ShopHelpers.getShop(above, plugin);
+					if (shop instanceof LinkedShop) {
+						((LinkedShop) shop).getContainers();
+						final Group group = worlds.get(container.getWorld()).members.get(target);
+						if (group != null) return group;
+						continue;
+					}
+					if (shop != null) {
+						continue;
+					}
+				}
+				for (final BlockFace face : LINK_DIRECTIONS) {
+					final Block linked = getLinkable(block, face);
+					if (	linked == null
+							|| visited.containsKey(ShopKey.pack(linked))
+							|| plugin.getPluginConfig().getBlockType(linked.getType()) != ShopBlockType.CONTAINER
+							) {
+						continue;
+					}
+					visited.put(ShopKey.pack(linked), linked);
+					next.add(linked);
+				}
+			}
+			ring = next;
+		}
+		world = worlds.get(container.getWorld());
+		if (world == null) {
+			worlds.put(container.getWorld(), world = new GroupWorld());
+		}
+		LongObjectMap<Block> unlinked = world.unlinked.get(chunk);
+		if (unlinked == null) {
+			world.unlinked.put(chunk, unlinked = new LongObjectMap<Block>());
+		}
+		unlinked.put(target, container);
+		return null;
+	}
+
+	/**
+	 * Forgets the groups that a changed block is in or next to
+	 * @param block the block that changed
+	 */
+	public void invalidate(final Block block) {
+		final GroupWorld world = worlds.get(block.getWorld());
+		if (world == null) return;
+		forgetUnlinked(world, block.getX(), block.getZ(), block.getX(), block.getZ());
+		drop(world, world.groups.get(ShopKey.pack(block)));
+		drop(world, world.members.get(ShopKey.pack(block)));
+		for (final BlockFace face : LINK_DIRECTIONS) {
+			drop(world, world.members.get(ShopKey.pack(block.getX() + face.getModX(), block.getY() + face.getModY(), block.getZ() + face.getModZ())));
+		}
+	}
+
+	/**
+	 * @param container the container to check
+	 * @return true if said container is linked to a shop, see {@link #getOwner(Block)}
+	 */
+	public boolean isLinked(final Block container) {
+		return getGroup(container) != null;
+	}
+
+	private boolean isShopAbove(final Block container) {
+		final Block above = container.getRelative(UP);
+		return	(above.getType() == SIGN_POST || above.getType() == WALL_SIGN)
+				&& ShopHelpers.getShop(above, plugin) != null;
+	}
+
+	/**
+	 * @param shop the shop to consider
+	 * @param container the container to consider
+	 * @return true if the owner of said shop may link said container: it is not locked
+	 *  from them, and no shop of another owner protects it
+	 */
+	private boolean mayLink(final Shop shop, final Block container) {
+		if (plugin.isLockedFrom(container, shop)) return false;
+		if (container.getType() != CHEST) return true;
+		for (final Shop protector : plugin.getShopRegistry().getChestProtectors(container)) {
+			if (!protector.getOwnerName().equals(shop.getOwnerName())) return false;
+		}
+		return true;
+	}
+
+	@SuppressWarnings("javadoc")
+	@EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+	public void onBlockBreak(final BlockBreakEvent e) {
+		invalidate(e.getBlock());
+	}
+
+	@SuppressWarnings("javadoc")
+	@EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+	public void onBlockPlace(final BlockPlaceEvent e) {
+		invalidate(e.getBlock());
+	}
+
+	@SuppressWarnings("javadoc")
+	@EventHandler(priority = EventPriority.MONITOR)
+	public void onChunkLoad(final ChunkLoadEvent e) {
+		final Chunk chunk = e.getChunk();
+		final GroupWorld world = worlds.get(chunk.getWorld());
+		if (world == null) return;
+		// Searches that stopped at the edge of said chunk may now reach further
+		forgetUnlinked(world, chunk.getX() << 4, chunk.getZ() << 4, (chunk.getX() << 4) | 0xF, (chunk.getZ() << 4) | 0xF);
+	}
+
+	@SuppressWarnings("javadoc")
+	@EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+	public void onChunkUnload(final ChunkUnloadEvent e) {
+		final Chunk chunk = e.getChunk();
+		final GroupWorld world = worlds.get(chunk.getWorld());
+		if (world == null) return;
+		world.unlinked.remove(ShopRegistry.chunkKey(chunk.getX(), chunk.getZ()));
+		final List<Group> groups = world.chunks.get(ShopRegistry.chunkKey(chunk.getX(), chunk.getZ()));
+		if (groups == null) return;
+		for (final Group group : new ArrayList<Group>(groups)) {
+			drop(world, group);
+		}
+	}
+
+	@SuppressWarnings("javadoc")
+	@EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+	public void onEntityExplode(final EntityExplodeEvent e) {
+		for (final Block block : e.blockList()) {
+			invalidate(block);
+		}
+	}
+
+	@SuppressWarnings("javadoc")
+	@EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+	public void onShopDestruction(final ShopDestructionEvent e) {
+		for (final Shop shop : e.getShops()) {
+			invalidate(shop.getSign().getBlock());
+		}
+	}
+
+	@SuppressWarnings("javadoc")
+	@EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+	public void onSignChange(final SignChangeEvent e) {
+		// A placed sign only becomes a shop once it is written
+		invalidate(e.getBlock());
+	}
+
+	@SuppressWarnings("javadoc")
+	@EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+	public void onWorldUnload(final WorldUnloadEvent e) {
+		worlds.remove(e.getWorld());
+	}
+}
@@ -0,0 +1,191 @@
+package com.wolvereness.physicalshop;
+
+import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.ItemStack;
+
+import com.wolvereness.physicalshop.exception.InvalidExchangeException;
+
+/**
+ * The slot changes needed to remove and then add items in an inventory.<br>
+ * The plan is worked out from one read of each slot without changing anything,
+ * so a failure is found before any slot is touched. It keeps only the slots that
+ * change and their original stacks, so applying it writes just those slots, and
+ * undoing it puts just those stacks back.
+ * A plan should be applied in the same tick it was made.
+ * Licensed under GNU GPL v3
+ * @author Wolfe
+ */
+public class ExchangePlan {
+	private static abstract class Slots {
+		abstract ItemStack get(int slot);
+		abstract int size();
+	}
+
+	private static boolean matches(final ItemStack slot, final ItemStack stack) {
+		return	slot.getType() == stack.getType()
+				&& slot.getDurability() == stack.getDurability()
+				&& !slot.hasItemMeta();
+	}
+
+	/**
+	 * Works out how to remove and then add the specified stacks.
+	 * Matching stacks are topped up before empty slots are used.
+	 * @param inventory the inventory to read, which is not changed
+	 * @param addStack stack to add, can be null
+	 * @param removeStack stack to remove, can be null
+	 * @return the planned changes
+	 * @throws InvalidExchangeException if there is not enough to remove the stack, or not enough room to add the stack
+	 */
+	public static ExchangePlan plan(final Inventory inventory, final ItemStack addStack, final ItemStack removeStack) throws InvalidExchangeException {
+		return plan(new Slots() {
+				@Override
+				ItemStack get(final int slot) {
+					return inventory.getItem(slot);
+				}
+				@Override
+				int size() {
+					return inventory.getSize();
+				}
+			}, addStack, removeStack);
+	}
+
+	/**
+	 * Works out how to remove and then add the specified stacks.
+	 * Matching stacks are topped up before empty slots are used.
+	 * @param contents the contents of the inventory, which are not changed
+	 * @param addStack stack to add, can be null
+	 * @param removeStack stack to remove, can be null
+	 * @return the planned changes
+	 * @throws InvalidExchangeException if there is not enough to remove the stack, or not enough room to add the stack
+	 */
+	public static ExchangePlan plan(final ItemStack[] contents, final ItemStack addStack, final ItemStack removeStack) throws InvalidExchangeException {
+		return plan(new Slots() {
+				@Override
+				ItemStack get(final int slot) {
+					return contents[slot];
+				}
+				@Override
+				int size() {
+					return contents.length;
+				}
+			}, addStack, removeStack);
+	}
+
+	/**
+	 * Reads each slot once. Removing takes from the first matching stacks, so by the time
+	 * a slot is read for adding, what is left in it is final. Empty slots are only used
+	 * once every matching stack was topped up, so they are noted and filled afterwards.
+	 */
+	private static ExchangePlan plan(final Slots slots, final ItemStack addStack, final ItemStack removeStack) throws InvalidExchangeException {
+		final ExchangePlan plan = new ExchangePlan(addStack);
+		final int size = slots.size();
+		int removing = removeStack == null ? 0 : removeStack.getAmount();
+		int adding = addStack == null ? 0 : addStack.getAmount();
+		final int maxStackSize = addStack == null ? 0 : addStack.getType().getMaxStackSize();
+		final int[] empties = new int[addStack == null ? 0 : Math.min(size, (adding + maxStackSize - 1) / Math.max(1, maxStackSize))];
+		int emptyCount = 0;
+
+		for (int i = 0; i < size && (removing > 0 || adding > 0); ++i) {
+			final ItemStack slot = slots.get(i);
+			final int original = slot == null ? 0 : slot.getAmount();
+			int amount = original;
+			if (removing > 0 && amount != 0 && matches(slot, removeStack)) {
+				final int taken = Math.min(amount, removing);
+				amount -= taken;
+				removing -= taken;
+			}
+			if (adding > 0 && amount != 0 && matches(slot, addStack)) {
+				final int put = Math.min(maxStackSize - amount, adding);
+				if (put > 0) {
+					amount += put;
+					adding -= put;
+				}
+			}
+			if (amount != original) {
+				plan.change(i, slot, amount, false);
+			}
+			if (amount == 0 && emptyCount < empties.length) {
+				empties[emptyCount++] = i;
+			}
+		}
+		if (removing > 0) throw new InvalidExchangeException(InvalidExchangeException.Type.REMOVE);
+
+		for (int i = 0; i < emptyCount && adding > 0; ++i) {
+			final int put = Math.min(maxStackSize, adding);
+			plan.change(empties[i], slots.get(empties[i]), put, true);
+			adding -= put;
+		}
+		if (adding > 0) throw new InvalidExchangeException(InvalidExchangeException.Type.ADD);
+
+		return plan;
+	}
+
+	private final ItemStack addStack;
+	/**
+	 * For each changed slot, whether it will hold a new stack of the added item
+	 */
+	private boolean[] added = new boolean[4];
+	private int[] amounts = new int[4];
+	private int changed = 0;
+	private ItemStack[] originals = new ItemStack[4];
+	private int[] slots = new int[4];
+
+	private ExchangePlan(final ItemStack addStack) {
+		this.addStack = addStack;
+	}
+
+	/**
+	 * Writes the changed slots to the inventory. The original stacks are kept unchanged for {@link #undo(Inventory)}.
+	 * @param inventory the inventory the contents were read from
+	 */
+	public void apply(final Inventory inventory) {
+		for (int i = 0; i < changed; ++i) {
+			if (amounts[i] == 0) {
+				inventory.setItem(slots[i], null);
+				continue;
+			}
+			final ItemStack stack = added[i] ? addStack.clone() : originals[i].clone();
+			stack.setAmount(amounts[i]);
+			inventory.setItem(slots[i], stack);
+		}
+	}
+
+	private void change(final int slot, final ItemStack original, final int amount, final boolean add) {
+		int i = changed - 1;
+		while (i >= 0 && slots[i] != slot) {
+			i--;
+		}
+		if (i < 0) {
+			if (changed == slots.length) {
+				final int length = changed << 1;
+				final boolean[] added = new boolean[length];
+				final int[] amounts = new int[length];
+				final ItemStack[] originals = new ItemStack[length];
+				final int[] slots = new int[length];
+				System.arraycopy(this.added, 0, added, 0, changed);
+				System.arraycopy(this.amounts, 0, amounts, 0, changed);
+				System.arraycopy(this.originals, 0, originals, 0, changed);
+				System.arraycopy(this.slots, 0, slots, 0, changed);
+				this.added = added;
+				this.amounts = amounts;
+				this.originals = originals;
+				this.slots = slots;
+			}
+			i = changed++;
+			slots[i] = slot;
+			originals[i] = original;
+		}
+		amounts[i] = amount;
+		added[i] = add;
+	}
+
+	/**
+	 * Puts the original stacks back into the slots that {@link #apply(Inventory)} changed
+	 * @param inventory the inventory the plan was applied to
+	 */
+	public void undo(final Inventory inventory) {
+		for (int i = 0; i < changed; ++i) {
+			inventory.setItem(slots[i], originals[i]);
+		}
+	}
+}
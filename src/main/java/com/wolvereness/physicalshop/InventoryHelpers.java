@@ -1,5 +1,6 @@
 package com.wolvereness.physicalshop;
 
+import org.bukkit.Material;
 import org.bukkit.inventory.Inventory;
 import org.bukkit.inventory.ItemStack;
 
@@ -9,49 +10,8 @@ import com.wolvereness.physicalshop.exception.InvalidExchangeException;
  *
  */
 public class InventoryHelpers {
-	private static boolean add(final Inventory inventory, final ItemStack stack) {
-		int left = stack.getAmount();
-		final int maxStackSize = stack.getType().getMaxStackSize();
-
-		loop: for (int pass = 0; pass < 2; ++pass) {
-			final ItemStack[] contents = inventory.getContents();
-
-			for (int i = 0; i < contents.length; ++i) {
-				if (left == 0) {
-					break loop;
-				}
-
-				final ItemStack s = contents[i];
-
-				if (s == null) {
-					if (pass == 0) {
-						continue;
-					}
-				} else {
-					if (	(s.getType() != stack.getType())
-							|| (s.getDurability() != stack.getDurability())
-							|| (s.hasItemMeta())
-							) {
-						continue;
-					}
-				}
-
-				final int size = s == null ? 0 : s.getAmount();
-				final int newSize = Math.min(maxStackSize, size + left);
-
-				stack.setAmount(newSize);
-
-				inventory.setItem(i, stack);
-
-				left -= newSize - size;
-			}
-		}
-
-		return left == 0;
-	}
-
 	/**
-	 * This will add the addStack, and remove the removeStack from specified inventory. If it fails, it throws an error and resets inventories.
+	 * This will remove the removeStack, and add the addStack to specified inventory. If it fails, it throws an error and the inventory is left unchanged.
 	 * @param inventory inventory to use
 	 * @param addStack stack to add
 	 * @param removeStack stack to remove
@@ -62,24 +22,7 @@ public class InventoryHelpers {
 			final ItemStack addStack,
 			final ItemStack removeStack)
 			throws InvalidExchangeException {
-		final ShopItemStack[] oldItems = InventoryHelpers.getItems(inventory);
-
-		if (removeStack != null) {
-			if (!InventoryHelpers.remove(inventory, removeStack)) {
-				InventoryHelpers.setItems(inventory, oldItems);
-				throw new InvalidExchangeException(
-						InvalidExchangeException.Type.REMOVE);
-			}
-
-		}
-
-		if (addStack != null) {
-			if (!InventoryHelpers.add(inventory, addStack)) {
-				InventoryHelpers.setItems(inventory, oldItems);
-				throw new InvalidExchangeException(
-						InvalidExchangeException.Type.ADD);
-			}
-		}
+		ExchangePlan.plan(inventory, addStack, removeStack).apply(inventory);
 	}
 
 	/**
@@ -89,25 +32,37 @@ public class InventoryHelpers {
 	 * @return the amount of material in said inventory
 	 */
 	public static int getCount(final Inventory inventory, final ShopMaterial material) {
-		int amount = 0;
+		return getCounts(inventory, material)[0];
+	}
 
-		for (final ItemStack i : inventory.getContents()) {
-			if (	(i != null)
-					&& (i.getType() == material.getMaterial())
-					&& (i.getDurability() == material.getDurability())
-					&& !i.hasItemMeta()) {
-				amount += i.getAmount();
-			}
-		}
+	/**
+	 * Finds how much of each given material is in given inventory, reading the inventory once
+	 * @param inventory the inventory to consider
+	 * @param materials the materials to consider, any of which can be null
+	 * @return the amount of each material in said inventory, in the same order; 0 for null materials
+	 */
+	public static int[] getCounts(final Inventory inventory, final ShopMaterial... materials) {
+		final int[] amounts = new int[materials.length];
+
+		SlotReader.getInstance().read(inventory, new SlotReader.Visitor() {
+			public void visit(final Material type, final short durability, final int amount) {
+				for (int j = 0; j < materials.length; ++j) {
+					if (materials[j] != null && materials[j].matches(type, durability)) {
+						amounts[j] += amount;
+					}
+				}
+			}});
 
-		return amount;
+		return amounts;
 	}
 
 	/**
 	 * Makes a set of shop item stacks to represent this inventory
 	 * @param inventory the inventory to consider
 	 * @return a set of shop item stacks
+	 * @deprecated copies every slot; use {@link ExchangePlan}, which keeps only the slots a trade changes
 	 */
+	@Deprecated
 	public static ShopItemStack[] getItems(final Inventory inventory) {
 		final ItemStack[] contents = inventory.getContents();
 		final ShopItemStack[] items = new ShopItemStack[contents.length];
@@ -120,45 +75,13 @@ public class InventoryHelpers {
 		return items;
 	}
 
-	private static boolean remove(final Inventory inventory, final ItemStack stack) {
-		int left = stack.getAmount();
-		final ItemStack[] contents = inventory.getContents();
-
-		for (int i = 0; i < contents.length; ++i) {
-			if (left == 0) {
-				break;
-			}
-
-			final ItemStack s = contents[i];
-
-			if (	(s == null)
-					|| (s.getType() != stack.getType())
-					|| (s.getDurability() != stack.getDurability())
-					|| (s.hasItemMeta())) {
-				continue;
-			}
-
-			final int size = s.getAmount();
-			final int newSize = size - Math.min(size, left);
-
-			if (newSize == 0) {
-				inventory.setItem(i, null);
-			} else {
-				s.setAmount(newSize);
-				inventory.setItem(i, s);
-			}
-
-			left -= size - newSize;
-		}
-
-		return left == 0;
-	}
-
 	/**
 	 * This changes slot in this inventory to given array
 	 * @param inventory the inventory to consider
 	 * @param items the items to overwrite the inventory with
+	 * @deprecated writes every slot; use {@link ExchangePlan#undo(Inventory)}, which puts back only the slots a trade changed
 	 */
+	@Deprecated
 	public static void setItems(final Inventory inventory, final ShopItemStack[] items) {
 		for (int i = 0; i < items.length; ++i) {
 			final ShopItemStack stack = items[i];
@@ -0,0 +1,151 @@
+package com.wolvereness.physicalshop;
+
+import static com.wolvereness.physicalshop.config.Localized.Message.*;
+
+import org.bukkit.block.Block;
+import org.bukkit.block.Sign;
+import org.bukkit.entity.Player;
+import org.bukkit.inventory.InventoryHolder;
+
+import com.wolvereness.physicalshop.exception.InvalidExchangeException;
+import com.wolvereness.physicalshop.exception.InvalidSignException;
+
+/**
+ * A chest shop whose stock is spread over a group of touching containers.<br>
+ * Stock and capital are the totals of the cached counts of every container, and
+ * each trade is made with the first container that can make all of it, so only
+ * containers that hold enough are read.
+ * Licensed under GNU GPL v3
+ * @author Wolfe
+ */
+public class LinkedShop extends ChestShop {
+	private final ContainerGroups groups;
+	private final int limit;
+	private final StockCache stock;
+	/**
+	 * Creates a linked shop over the specified InventoryHolder
+	 * @param sign sign to consider
+	 * @param plugin The active PhysicalShop plugin
+	 * @param inventory The container under the sign
+	 * @throws InvalidSignException thrown if the sign is invalid
+	 */
+	public LinkedShop(final Sign sign, final PhysicalShop plugin, final InventoryHolder inventory) throws InvalidSignException {
+		super(sign, plugin, inventory);
+		this.groups = plugin.getContainerGroups();
+		this.limit = plugin.getPluginConfig().getLinkedContainers();
+		this.stock = plugin.getStockCache();
+	}
+	/**
+	 * @return the containers linked to this shop, starting with the one under the sign
+	 */
+	public InventoryHolder[] getContainers() {
+		return groups.getContainers(this, limit);
+	}
+	@Override
+	public int getMaxBuyMultiple(final Player player) {
+		if (!canBuy()) return 1;
+		int best = 1;
+		for (final InventoryHolder container : getContainers()) {
+			final int stocked = stock.getCount(container, getMaterial());
+			if (getBuyRate().getAmount() > 0 && stocked / getBuyRate().getAmount() <= best) {
+				continue;
+			}
+			best = Math.max(best, getMaxBuyMultiple(player, container.getInventory(), stocked));
+		}
+		return best;
+	}
+	@Override
+	public int getMaxSellMultiple(final Player player) {
+		if (!canSell()) return 1;
+		int best = 1;
+		for (final InventoryHolder container : getContainers()) {
+			final int stocked = stock.getCount(container, getSellCurrency());
+			if (getSellRate().getPrice() > 0 && stocked / getSellRate().getPrice() <= best) {
+				continue;
+			}
+			best = Math.max(best, getMaxSellMultiple(player, container.getInventory(), stocked));
+		}
+		return best;
+	}
+	@Override
+	public int getShopBuyCapital() {
+		return getShopCounts()[1];
+	}
+	@Override
+	protected int[] getShopCounts() {
+		final int[] totals = new int[3];
+		for (final InventoryHolder container : getContainers()) {
+			final int[] counts = stock.getCounts(container, getMaterial(), getBuyCurrency(), getSellCurrency());
+			for (int i = 0; i < totals.length; i++) {
+				totals[i] = (int) Math.min((long) totals[i] + counts[i], Integer.MAX_VALUE);
+			}
+		}
+		return totals;
+	}
+	@Override
+	public int getShopItems() {
+		return getShopCounts()[0];
+	}
+	@Override
+	public int getShopSellCapital() {
+		return getShopCounts()[2];
+	}
+	@Override
+	public boolean isShopBlock(final Block block) {
+		if (super.isShopBlock(block)) return true;
+
+		// Makes sure this shop's group is known before asking who owns the block
+		getContainers();
+		return equals(groups.getOwner(block));
+	}
+	@Override
+	protected boolean planBuy(final Player player, final PhysicalShop plugin, final Transaction transaction, final int multiple) {
+		final int price = getBuyRate().getPrice() * multiple;
+		final int amount = getBuyRate().getAmount() * multiple;
+		boolean stocked = false;
+		for (final InventoryHolder container : getContainers()) {
+			if (stock.getCount(container, getMaterial()) < amount) {
+				continue;
+			}
+			stocked = true;
+			try {
+				planContainer(transaction, container, getBuyCurrency(), price, getMaterial(), amount);
+				return true;
+			} catch (final InvalidExchangeException e) {
+			}
+		}
+		if (stocked) {
+			plugin.getLocale().sendMessage(player, CHEST_INVENTORY_FULL);
+		} else {
+			plugin.getLocale().sendMessage(
+				player,
+				NOT_ENOUGH_SHOP_ITEMS,
+				getMaterial().toString(plugin.getMaterialConfig())
+				);
+		}
+		return false;
+	}
+	@Override
+	protected boolean planSell(final Player player, final PhysicalShop plugin, final Transaction transaction, final int multiple) {
+		final int price = getSellRate().getPrice() * multiple;
+		final int amount = getSellRate().getAmount() * multiple;
+		boolean funded = false;
+		for (final InventoryHolder container : getContainers()) {
+			if (stock.getCount(container, getSellCurrency()) < price) {
+				continue;
+			}
+			funded = true;
+			try {
+				planContainer(transaction, container, getMaterial(), amount, getSellCurrency(), price);
+				return true;
+			} catch (final InvalidExchangeException e) {
+			}
+		}
+		if (funded) {
+			plugin.getLocale().sendMessage(player, CHEST_INVENTORY_FULL);
+		} else {
+			plugin.getLocale().sendMessage(player, NOT_ENOUGH_SHOP_MONEY, getSellCurrency().toString(plugin.getMaterialConfig()));
+		}
+		return false;
+	}
+}
@@ -0,0 +1,205 @@
+package com.wolvereness.physicalshop;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.bukkit.Material;
+import org.bukkit.material.Coal;
+import org.bukkit.material.Dye;
+import org.bukkit.material.Leaves;
+import org.bukkit.material.MonsterEggs;
+import org.bukkit.material.Sandstone;
+import org.bukkit.material.SmoothBrick;
+import org.bukkit.material.Step;
+import org.bukkit.material.Tree;
+import org.bukkit.material.Wool;
+
+/**
+ * Resolves material names, such as "wool", "red wool", "35" or "35:14", against tables built once.<br>
+ * Words may be split by spaces or underscores. Material names and ids are kept in a tree
+ * of words read from the last word backwards, so each name is resolved in one pass
+ * over its words, and the words before the material are looked up as its data value.
+ * Licensed under GNU GPL v3
+ * @author Wolfe
+ */
+public class MaterialIndex {
+	private static class Node {
+		private final Map<String, Node> children = new HashMap<String, Node>();
+		private Material material;
+	}
+
+	/**
+	 * The result of {@link #getDurability(Material, String)} for a name that is not a durability
+	 */
+	public static final int NOT_FOUND = Integer.MIN_VALUE;
+	private static final Map<Material, Map<String, Short>> DATA_NAMES = new EnumMap<Material, Map<String, Short>>(Material.class);
+	private static final Node ROOT = new Node();
+
+	static {
+		for (final Material material : Material.values()) {
+			add(material.name().split("_"), material);
+			add(new String[] { String.valueOf(material.getId()) }, material);
+
+			final Map<String, Short> names = new HashMap<String, Short>();
+			for (byte data = 0; data < 16; data++) {
+				final Object name = getDataName(material, data);
+				if (name != null && !names.containsKey(name.toString())) {
+					names.put(name.toString(), (short) data);
+				}
+			}
+			if (!names.isEmpty()) {
+				DATA_NAMES.put(material, names);
+			}
+		}
+	}
+
+	private static void add(final String[] words, final Material material) {
+		Node node = ROOT;
+		for (int i = words.length - 1; i >= 0; i--) {
+			Node next = node.children.get(words[i]);
+			if (next == null) {
+				node.children.put(words[i], next = new Node());
+			}
+			node = next;
+		}
+		if (node.material == null) {
+			node.material = material;
+		}
+	}
+
+	/**
+	 * Finds the durability named by words for a material
+	 * @param material the material the durability is for
+	 * @param name a number, or a data value name such as "red" or "birch" with words split by underscores
+	 * @return the durability, or {@link #NOT_FOUND} if said name does not name one
+	 */
+	public static int getDurability(final Material material, final String name) {
+		final int number = parseShort(name);
+		if (number != NOT_FOUND) return number;
+		final Map<String, Short> names = DATA_NAMES.get(material);
+		if (names == null) return NOT_FOUND;
+		final Short durability = names.get(name);
+		return durability == null ? NOT_FOUND : durability;
+	}
+
+	private static Object getDataName(final Material material, final byte data) {
+		switch (material) {
+		case COAL:
+			return new Coal(material, data).getType();
+		case WOOD:
+		case LOG:
+			return new Tree(material, data).getSpecies();
+		case LEAVES:
+			return new Leaves(material, data).getSpecies();
+		case STEP:
+		case DOUBLE_STEP:
+			return new Step(material, data).getMaterial();
+		case INK_SACK:
+			return new Dye(material, data).getColor();
+		case WOOL:
+			return new Wool(material, data).getColor();
+		case MONSTER_EGGS:
+			return new MonsterEggs(material, data).getMaterial();
+		case SMOOTH_BRICK:
+			return new SmoothBrick(material, data).getMaterial();
+		case SANDSTONE:
+			return new Sandstone(material, data).getType();
+		default:
+			return null;
+		}
+	}
+
+	private static Material getMaterial(final String name) {
+		final List<String> words = split(name);
+		Node node = ROOT;
+		for (int i = words.size() - 1; i >= 0 && node != null; i--) {
+			node = node.children.get(words.get(i));
+		}
+		return node == null ? null : node.material;
+	}
+
+	/**
+	 * Parses a material name
+	 * @param string the name to parse
+	 * @return the material named, or null if said name does not name a material
+	 */
+	public static ShopMaterial parse(final String string) {
+		final int colon = string.indexOf(':');
+		if (colon != -1) {
+			if (string.indexOf(':', colon + 1) != -1) return null;
+			final Material material = getMaterial(string.substring(0, colon));
+			final String data = string.substring(colon + 1).trim();
+			final int durability = parseShort(data);
+			if (material == null || durability == NOT_FOUND) return null;
+			return ShopMaterial.valueOf(material, (short) durability);
+		}
+
+		final List<String> words = split(string);
+		// Every suffix of the words that names a material, longest last
+		final List<Material> materials = new ArrayList<Material>(2);
+		final List<Integer> starts = new ArrayList<Integer>(2);
+		Node node = ROOT;
+		for (int i = words.size() - 1; i >= 0; i--) {
+			node = node.children.get(words.get(i));
+			if (node == null) {
+				break;
+			}
+			if (node.material != null) {
+				materials.add(node.material);
+				starts.add(i);
+			}
+		}
+
+		for (int i = materials.size() - 1; i >= 0; i--) {
+			final Material material = materials.get(i);
+			final int start = starts.get(i);
+			if (start == 0) return ShopMaterial.valueOf(material, (short) 0);
+			final StringBuilder name = new StringBuilder(words.get(0));
+			for (int j = 1; j < start; j++) {
+				name.append('_').append(words.get(j));
+			}
+			final int durability = getDurability(material, name.toString());
+			if (durability != NOT_FOUND) return ShopMaterial.valueOf(material, (short) durability);
+		}
+		return null;
+	}
+
+	/**
+	 * @param string text to read
+	 * @return the number said text holds, or {@link #NOT_FOUND} if it is not a short
+	 */
+	private static int parseShort(final String string) {
+		final int start = string.startsWith("-") ? 1 : 0;
+		if (string.length() == start || string.length() > start + 5) return NOT_FOUND;
+		int value = 0;
+		for (int i = start; i < string.length(); i++) {
+			final char c = string.charAt(i);
+			if (c < '0' || c > '9') return NOT_FOUND;
+			value = value * 10 + (c - '0');
+		}
+		if (start == 1) {
+			value = -value;
+		}
+		return value < Short.MIN_VALUE || value > Short.MAX_VALUE ? NOT_FOUND : value;
+	}
+
+	private static List<String> split(final String string) {
+		final List<String> words = new ArrayList<String>(4);
+		int start = -1;
+		for (int i = 0; i <= string.length(); i++) {
+			final boolean separator = i == string.length() || string.charAt(i) == '_' || Character.isWhitespace(string.charAt(i));
+			if (!separator) {
+				if (start == -1) {
+					start = i;
+				}
+			} else if (start != -1) {
+				words.add(string.substring(start, i).toUpperCase());
+				start = -1;
+			}
+		}
+		return words;
+	}
+}
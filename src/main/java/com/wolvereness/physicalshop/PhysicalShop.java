@@ -28,6 +28,7 @@ import com.daemitus.deadbolt.Deadbolt;
 import com.daemitus.deadbolt.DeadboltPlugin;
 import com.daemitus.deadbolt.Deadbolted;
 import com.griefcraft.lwc.LWCPlugin;
+import com.griefcraft.model.Protection;
 import com.untamedears.citadel.Citadel;
 import com.wolvereness.physicalshop.config.Localized;
 import com.wolvereness.physicalshop.config.MaterialConfig;
@@ -67,6 +68,7 @@ public class PhysicalShop extends JavaPlugin implements Verbosable {
 	private final HashMap<String,CommandHandler> commands = new HashMap<String,CommandHandler>();
 	private StandardConfig configuration;
 	private Consumer consumer = null;
+	private final ContainerGroups containerGroups = new ContainerGroups(this);
 	private Plugin deadbolt = null;
 	private final PhysicalShopListener listener = new PhysicalShopListener(this);
 	private Localized locale;
@@ -75,8 +77,15 @@ public class PhysicalShop extends JavaPlugin implements Verbosable {
 	private Citadel citadel = null;
 	private MaterialConfig materialConfig;
 	private Permissions permissions;
+	private final ShopDiscovery shopDiscovery = new ShopDiscovery(this);
+	private final ShopIndex shopIndex = new ShopIndex(this);
+	private final ShopRegistry shopRegistry = new ShopRegistry(this);
 	private final ShowcaseListener showcaseListener = new ShowcaseListener(this);
+	private SignTextCache signTextCache;
+	private final StockCache stockCache = new StockCache();
+	private final TradeBatcher tradeBatcher = new TradeBatcher(this);
 	private final Set<String> updateSenders = new HashSet<String>();
+	private final VirtualStock virtualStock = new VirtualStock(this);
 	/**
 	 * This function checks for Deadbolt, thus letting player create shop over
 	 * existing chest
@@ -110,6 +119,12 @@ public class PhysicalShop extends JavaPlugin implements Verbosable {
 		}
 		return new File(getServer().getUpdateFolderFile(), "PhysicalShop.jar");
 	}
+	/**
+	 * @return the groups of containers linked to shops
+	 */
+	public ContainerGroups getContainerGroups() {
+		return containerGroups;
+	}
 	/**
 	 * @return the locale
 	 */
@@ -142,6 +157,68 @@ public class PhysicalShop extends JavaPlugin implements Verbosable {
 	public StandardConfig getPluginConfig() {
 		return configuration;
 	}
+	/**
+	 * @return the persistent index of shops
+	 */
+	public ShopIndex getShopIndex() {
+		return shopIndex;
+	}
+	/**
+	 * @return the registry of known shops
+	 */
+	public ShopRegistry getShopRegistry() {
+		return shopRegistry;
+	}
+	/**
+	 * @return the cache of parsed sign text
+	 */
+	public SignTextCache getSignTextCache() {
+		return signTextCache;
+	}
+	/**
+	 * @return the cache of shop container contents
+	 */
+	public StockCache getStockCache() {
+		return stockCache;
+	}
+	/**
+	 * @return the batcher of repeated trades
+	 */
+	public TradeBatcher getTradeBatcher() {
+		return tradeBatcher;
+	}
+	/**
+	 * @return the counters of virtual shops
+	 */
+	public VirtualStock getVirtualStock() {
+		return virtualStock;
+	}
+	/**
+	 * Checks the protection plugins for a block locked against the owner of a shop.<br>
+	 * Unlike the other checks, the owner does not need to be online.
+	 * @param block block that might be locked
+	 * @param shop the shop whose owner to consider
+	 * @return true if a protection plugin locks said block and the owner of said shop may not access it
+	 */
+	public boolean isLockedFrom(final Block block, final Shop shop) {
+		if (lwc != null && lwc.isEnabled()) {
+			final Protection protection = lwc.getLWC().findProtection(block);
+			if (protection != null && !isLockOwner(shop, protection.getOwner())) return true;
+		}
+		if (	lockette != null
+				&& lockette.isEnabled()
+				&& Lockette.isProtected(block)
+				&& !isLockOwner(shop, Lockette.getProtectedOwner(block))
+				) return true;
+		if (deadbolt != null && deadbolt.isEnabled()) {
+			final Deadbolted lock = Deadbolt.get(block);
+			if (lock.isProtected() && !isLockOwner(shop, lock.getOwner())) return true;
+		}
+		return citadel != null && citadel.isEnabled() && !citadel.playerCanAccessBlock(block, shop.getOwnerName());
+	}
+	private boolean isLockOwner(final Shop shop, final String owner) {
+		return owner != null && shop.isSmartOwner(owner, this);
+	}
 	/**
 	 * Method used to hook into lockette
 	 * @param relative the block to consider
@@ -194,10 +271,12 @@ public class PhysicalShop extends JavaPlugin implements Verbosable {
 		return false;
 	}
 	/**
-	 * Does nothing as of yet.
+	 * Writes the shop index and virtual stock, and unregisters extended names.
 	 */
 	@Override
 	public void onDisable() {
+		shopIndex.save(false);
+		virtualStock.save(false);
 		if(configuration.isExtendedNames()) {
 			NameCollection.unregisterPlugin(this);
 		}
@@ -211,9 +290,18 @@ public class PhysicalShop extends JavaPlugin implements Verbosable {
 		{
 			saveConfig();
 			permissions = new Permissions(this);
+			shopIndex.load();
+			virtualStock.load();
+			virtualStock.settle();
 			//Events
 			final PluginManager pm = getServer().getPluginManager();
 			pm.registerEvents(listener, this);
+			pm.registerEvents(shopRegistry, this);
+			pm.registerEvents(shopIndex, this);
+			pm.registerEvents(shopDiscovery, this);
+			pm.registerEvents(stockCache, this);
+			pm.registerEvents(virtualStock, this);
+			pm.registerEvents(containerGroups, this);
 			//Commands
 			commands.put(RELOAD_COMMAND, new Reload(this));
 			commands.put(VERSION_COMMAND, new Version(this,"%2$s version %1$s by Wolvereness, original by yli"));
@@ -258,6 +346,8 @@ public class PhysicalShop extends JavaPlugin implements Verbosable {
 			} catch (final Throwable er) {
 			}
 
+			shopDiscovery.scanLoaded();
+
 			getLogger().info(getDescription().getFullName() + " enabled.");
 		} catch (final Throwable t) {
 			getLogger().log(SEVERE, getDescription().getFullName() + " failed to enable", t);
@@ -291,6 +381,10 @@ public class PhysicalShop extends JavaPlugin implements Verbosable {
 		showcaseListener.setStatus(configuration.isShowcaseEnabled());
 		locale = new Localized(this);
 		materialConfig = new MaterialConfig(this);
+		signTextCache = new SignTextCache(this);
+		shopRegistry.clear();
+		containerGroups.clear();
+		virtualStock.settle();
 		try {
 			if (getConfig.getBoolean(LOG_BLOCK)) {
 				final Plugin logblockPlugin = getServer().getPluginManager().getPlugin("LogBlock");
@@ -4,7 +4,7 @@ import static com.wolvereness.physicalshop.ShopHelpers.*;
 import static com.wolvereness.physicalshop.config.ConfigOptions.SERVER_SHOP;
 import static com.wolvereness.physicalshop.config.Localized.Message.*;
 import static java.util.logging.Level.SEVERE;
-import static org.bukkit.Material.CHEST;
+import static org.bukkit.Material.*;
 import static org.bukkit.block.BlockFace.DOWN;
 import static org.bukkit.block.BlockFace.UP;
 import static org.bukkit.event.block.Action.LEFT_CLICK_BLOCK;
@@ -15,6 +15,7 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
 
+import org.bukkit.Material;
 import org.bukkit.block.Block;
 import org.bukkit.block.BlockFace;
 import org.bukkit.block.BlockState;
@@ -37,6 +38,7 @@ import org.bukkit.event.entity.EntityExplodeEvent;
 import org.bukkit.event.player.PlayerInteractEvent;
 import org.bukkit.inventory.InventoryHolder;
 
+import com.wolvereness.physicalshop.config.StandardConfig.ShopBlockType;
 import com.wolvereness.physicalshop.events.ShopCreationEvent;
 import com.wolvereness.physicalshop.events.ShopDestructionEvent;
 import com.wolvereness.physicalshop.events.ShopInteractEvent;
@@ -51,6 +53,31 @@ import com.wolvereness.util.NameCollection.OutOfEntriesException;
  * @author Wolfe
  */
 public class PhysicalShopListener implements Listener {
+	/**
+	 * @param type the classification of a block
+	 * @return true if a block of said classification has an inventory, allowed as a shop or not
+	 */
+	private static boolean isContainer(final ShopBlockType type) {
+		return type == ShopBlockType.CONTAINER || type == ShopBlockType.BLACKLISTED;
+	}
+	/**
+	 * @param type the type of a block
+	 * @return true if a block of said type would leave a sign or falling block above it unsupported
+	 */
+	private static boolean isUnsupporting(final Material type) {
+		switch (type) {
+		case AIR:
+		case FIRE:
+		case WATER:
+		case STATIONARY_WATER:
+		case LAVA:
+		case STATIONARY_LAVA:
+			return true;
+		default:
+			return false;
+		}
+	}
+
 	private final PhysicalShop plugin;
 	/**
 	 * Default constructor
@@ -67,6 +94,7 @@ public class PhysicalShopListener implements Listener {
 	 * @return true if event is cancelled
 	 */
 	public boolean onBlock_Destroyed(final Cancellable e, final Entity p, final Block b) {
+		if (!plugin.getShopRegistry().isShopNear(b) && !plugin.getContainerGroups().isLinked(b)) return e.isCancelled();
 		return onBlock_Destroyed(e, p, Collections.singleton(b));
 	}
 	/**
@@ -116,14 +144,23 @@ public class PhysicalShopListener implements Listener {
 		onBlock_Destroyed(e, null, e.getBlock());
 	}
 	/**
-	 * Block BlockPhysicsEvent if it destroyed shop
-	 * @deprecated Doesn't quite work as intended
+	 * Block BlockPhysicsEvent if it would pop a shop sign off, or drop the block it is on.
+	 * Blocks that are not a known shop sign or the block one is attached to are passed over
+	 * without reading the world.
 	 * @param e Event
 	 */
-	//@EventHandler(ignoreCancelled = true)
-	@Deprecated
+	@EventHandler(ignoreCancelled = true)
 	public void onBlockBlockPhysics(final BlockPhysicsEvent e) {
-		onBlock_Destroyed(e, null, e.getBlock());
+		final Block block = e.getBlock();
+		if (!plugin.getShopRegistry().isGuarded(block)) return;
+		final Material type = block.getType();
+		if (type == SIGN_POST || type == WALL_SIGN) {
+			final Shop shop = getShop(block, plugin);
+			if (shop == null || !isUnsupporting(shop.getAttachedBlock().getType())) return;
+		} else if (type == SAND || type == GRAVEL || type == DRAGON_EGG) {
+			if (!isUnsupporting(block.getRelative(DOWN).getType())) return;
+		} else return;
+		onBlock_Destroyed(e, null, block);
 	}
 	/**
 	 * Block the BlockPistonExtendEvent if it will move the block
@@ -184,16 +221,18 @@ public class PhysicalShopListener implements Listener {
 	 */
 	@EventHandler(ignoreCancelled = true)
 	public void onBlockPlace(final BlockPlaceEvent e) {
-		final Block block;
+		final Block block = e.getBlock();
 		final BlockState state;
 		if (	!plugin.getPluginConfig().isProtectChestAccess()
+				|| !isContainer(plugin.getPluginConfig().getBlockType(block.getType()))
 				|| plugin.getPermissionHandler().hasAdmin(e.getPlayer())
-				|| !((state = (block = e.getBlock()).getState()) instanceof InventoryHolder)
+				|| !((state = block.getState()) instanceof InventoryHolder)
 				) return;
 
-		if (	block.getType() == CHEST
-				? isProtectedChestsAround(block, e.getPlayer(), plugin)
-				: !hasAccess(e.getPlayer(), block.getRelative(UP), plugin)
+		if (	(block.getType() == CHEST
+					? isProtectedChestsAround(block, e.getPlayer(), plugin)
+					: !hasAccess(e.getPlayer(), block.getRelative(UP), plugin))
+				|| isProtectedLinked(block, e.getPlayer(), plugin)
 				) {
 			plugin.getLocale().sendMessage(e.getPlayer(), CANT_PLACE_CHEST);
 			e.setCancelled(true);
@@ -227,14 +266,19 @@ public class PhysicalShopListener implements Listener {
 	@EventHandler(ignoreCancelled = true)
 	public void onPlayerInteract(final PlayerInteractEvent e) {
 		final Block block = e.getClickedBlock();
-		if (	plugin.getPluginConfig().isProtectChestAccess()
+		if (block == null) return;
+		final ShopBlockType type = plugin.getPluginConfig().getBlockType(block.getType());
+		if (type == ShopBlockType.IRRELEVANT) return;
+		if (	isContainer(type)
+				&& plugin.getPluginConfig().isProtectChestAccess()
 				&& e.getAction() == RIGHT_CLICK_BLOCK
 				&& block.getState() instanceof InventoryHolder
 				&& !plugin.getPermissionHandler().hasAdmin(e.getPlayer())
 				) {
-			if (	block.getType() == CHEST
-					? isProtectedChestsAround(block, e.getPlayer(), plugin)
-					: !hasAccess(e.getPlayer(), block.getRelative(UP), plugin)
+			if (	(block.getType() == CHEST
+						? isProtectedChestsAround(block, e.getPlayer(), plugin)
+						: !hasAccess(e.getPlayer(), block.getRelative(UP), plugin))
+					|| isProtectedLinked(block, e.getPlayer(), plugin)
 					) {
 				plugin.getLocale().sendMessage(e.getPlayer(), CANT_USE_CHEST);
 				e.setCancelled(true);
@@ -243,6 +287,8 @@ public class PhysicalShopListener implements Listener {
 			return;
 		}
 
+		if (type != ShopBlockType.SIGN) return;
+
 		final Shop shop = getShop(block, plugin);
 
 		if (shop == null) return;
@@ -312,10 +358,11 @@ public class PhysicalShopListener implements Listener {
 		}
 		if (e.isCancelled()) return;
 		final boolean hasChest;
+		final Block below = e.getBlock().getRelative(DOWN);
+		final ShopBlockType belowType = plugin.getPluginConfig().getBlockType(below.getType());
 		if (event.isCheckExistingChest()) {
-			final BlockState state = e.getBlock().getRelative(DOWN).getState();
-			if (	state instanceof InventoryHolder
-					&& !plugin.getPluginConfig().isBlacklistedShopType(state.getType())) {
+			if (	belowType == ShopBlockType.CONTAINER
+					&& below.getState() instanceof InventoryHolder) {
 				if (!plugin.getPermissionHandler().hasAdmin(e.getPlayer())) {
 					plugin.getLocale().sendMessage(e.getPlayer(), EXISTING_CHEST);
 					e.setCancelled(true);
@@ -326,7 +373,7 @@ public class PhysicalShopListener implements Listener {
 				hasChest = false;
 			}
 		} else {
-			hasChest = e.getBlock().getRelative(DOWN).getState() instanceof InventoryHolder;
+			hasChest = isContainer(belowType) && below.getState() instanceof InventoryHolder;
 		}
 		if(hasChest || e.getLine(3).equalsIgnoreCase(plugin.getConfig().getString(SERVER_SHOP))) {
 			try {
@@ -12,11 +12,11 @@ import org.bukkit.block.Sign;
 import org.bukkit.craftbukkit.v1_4_R1.CraftChunk;
 import org.bukkit.entity.Player;
 import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.ItemStack;
 import org.bukkit.material.Attachable;
 
 import com.wolvereness.physicalshop.config.MaterialConfig;
 import com.wolvereness.physicalshop.exception.InvalidExchangeException;
-import com.wolvereness.physicalshop.exception.InvalidMaterialException;
 import com.wolvereness.physicalshop.exception.InvalidSignException;
 import com.wolvereness.physicalshop.exception.InvalidSignOwnerException;
 import com.wolvereness.util.NameCollection;
@@ -25,6 +25,24 @@ import com.wolvereness.util.NameCollection;
  *
  */
 public class Shop {
+	private static boolean canExchange(
+			final ItemStack[] player,
+			final ItemStack[] shop,
+			final ShopMaterial given,
+			final int givenAmount,
+			final ShopMaterial taken,
+			final int takenAmount
+			) {
+		try {
+			ExchangePlan.plan(player, given.getStack(givenAmount), taken.getStack(takenAmount));
+			if (shop != null) {
+				ExchangePlan.plan(shop, taken.getStack(takenAmount), given.getStack(givenAmount));
+			}
+			return true;
+		} catch (final InvalidExchangeException e) {
+			return false;
+		}
+	}
 	/**
 	 * Figures out the current material the shop uses.
 	 * @param lines text from sign
@@ -32,11 +50,7 @@ public class Shop {
 	 * @return an associated shop material, or null if failed to decypher
 	 */
 	public static ShopMaterial getMaterial(final String[] lines, final MaterialConfig config) {
-		try {
-			return config.getShopMaterial(lines[0]);
-		} catch (final InvalidMaterialException e) {
-			return null;
-		}
+		return config.findShopMaterial(lines[0]);
 	}
 	/**
 	 * Owner is found on fourth line of sign. This will NOT cross-check for extended player names!
@@ -51,7 +65,7 @@ public class Shop {
 		player.updateInventory();
 	}
 	private final Rate buyRate;
-	private int hash;
+	private final ShopKey key;
 	private final ShopMaterial material;
 	private final String ownerName;
 	private final Rate sellRate;
@@ -83,14 +97,14 @@ public class Shop {
 	 */
 	private Shop(final String[] lines, final PhysicalShop plugin, final Sign sign) throws InvalidSignException {
 		this.sign = sign;
-		material = getMaterial(lines, plugin.getMaterialConfig());
+		this.key = sign == null ? null : ShopKey.of(sign.getBlock());
+		final SignTextCache.Parsed parsed = plugin.getSignTextCache().parse(lines);
 
-		if (material == null) throw new InvalidSignException();
+		if (parsed == null) throw new InvalidSignException();
 
-		buyRate = plugin.getPluginConfig().getBuyPatternHandler().getRate(lines[1], plugin);
-		sellRate = plugin.getPluginConfig().getSellPatternHandler().getRate(lines[2], plugin);
-
-		if (buyRate == null && sellRate == null) throw new InvalidSignException();
+		material = parsed.getMaterial();
+		buyRate = parsed.getBuyRate();
+		sellRate = parsed.getSellRate();
 
 		if (((this.ownerName = lines[3]) == null) || ownerName.length() == 0) throw new InvalidSignOwnerException();
 	}
@@ -98,21 +112,25 @@ public class Shop {
 	 * Invokes the buy routine for player.
 	 * @param player player purchasing
 	 * @param plugin The active PhysicalShop plugin
+	 * @param multiple how many times over to buy at the shop's rate
 	 * @return true if success
 	 */
-	protected boolean buy(final Player player, final PhysicalShop plugin) {
+	protected boolean buy(final Player player, final PhysicalShop plugin, final int multiple) {
 		if (!canBuy()) {
 			plugin.getLocale().sendMessage(player, NO_BUY);
 			return false;
 		}
 
+		final Transaction transaction = new Transaction();
+		if (!planBuy(player, plugin, transaction, multiple)) return false;
+
 		final Inventory inventory = player.getInventory();
 
-		final int price = getBuyRate().getPrice();
-		final int amount = getBuyRate().getAmount();
+		final int price = getBuyRate().getPrice() * multiple;
+		final int amount = getBuyRate().getAmount() * multiple;
 
 		try {
-			InventoryHelpers.exchange(inventory, material.getStack(amount), getBuyCurrency().getStack(price));
+			transaction.add(inventory, ExchangePlan.plan(inventory, material.getStack(amount), getBuyCurrency().getStack(price)));
 		} catch (final InvalidExchangeException e) {
 			switch (e.getType()) {
 			case ADD:
@@ -126,6 +144,8 @@ public class Shop {
 			return false;
 		}
 
+		transaction.commit();
+
 		plugin.getLocale().sendMessage(
 			player,
 			BUY,
@@ -136,7 +156,7 @@ public class Shop {
 			);
 		updateInventory(player);
 
-		queryLogBlock(player, false, plugin);
+		queryLogBlock(player, false, plugin, multiple);
 		return true;
 	}
 	/**
@@ -154,7 +174,7 @@ public class Shop {
 	@Override
 	public boolean equals(final Object o) {
 		if(o == this) return true;
-		if(o == null || !o.getClass().isAssignableFrom(Shop.class)) return false;
+		if(!(o instanceof Shop)) return false;
 		final Shop that = (Shop) o;
 		if(that.sign == this.sign) {
 			if(this.sign != null) return true; // It's the same sign, so same shop
@@ -169,8 +189,14 @@ public class Shop {
 				&& this.ownerName.equals(that.ownerName)
 				;
 		}
-		if(this.sign == null) return false; // this is null, that is not
-		return this.sign.equals(that.sign);
+		if(this.sign == null || that.sign == null) return false; // one is null, the other is not
+		return this.key.equals(that.key);
+	}
+	/**
+	 * @return the block the sign for this shop is attached to
+	 */
+	public Block getAttachedBlock() {
+		return sign.getBlock().getRelative(((org.bukkit.material.Sign) sign.getData()).getAttachedFace());
 	}
 	/**
 	 * @return the currency associated with buying
@@ -185,12 +211,121 @@ public class Shop {
 	public Rate getBuyRate() {
 		return buyRate;
 	}
+	/**
+	 * @return the position of the sign for this shop, or null if there is no sign
+	 */
+	public ShopKey getKey() {
+		return key;
+	}
 	/**
 	 * @return the material associated with this shop
 	 */
 	public ShopMaterial getMaterial() {
 		return material;
 	}
+	/**
+	 * Finds the largest number of times over the buy rate that the player can buy at once
+	 * @param player player purchasing
+	 * @return the multiple to buy, or 1 if not even a single purchase can be made
+	 */
+	public int getMaxBuyMultiple(final Player player) {
+		return getMaxBuyMultiple(player, getShopInventory(), getShopItems());
+	}
+	/**
+	 * Finds the largest number of times over the buy rate that the player can buy at once from one inventory
+	 * @param player player purchasing
+	 * @param shop the inventory to buy from, or null if it has unlimited room
+	 * @param stocked how much of the shop's material said inventory holds
+	 * @return the multiple to buy, or 1 if not even a single purchase can be made
+	 */
+	protected int getMaxBuyMultiple(final Player player, final Inventory shop, final int stocked) {
+		if (!canBuy()) return 1;
+		final Inventory inventory = player.getInventory();
+		return getMaxMultiple(
+			inventory.getContents(),
+			shop == null ? null : shop.getContents(),
+			material,
+			getBuyRate().getAmount(),
+			getBuyCurrency(),
+			getBuyRate().getPrice(),
+			InventoryHelpers.getCount(inventory, getBuyCurrency()),
+			stocked
+			);
+	}
+	/**
+	 * Searches for the largest multiple of a rate that both the player and the shop can trade.
+	 * Each side is only planned, so nothing is changed.
+	 * @param contents the player's contents
+	 * @param shop the shop's contents, or null if it has unlimited room
+	 * @param given what the player gets
+	 * @param givenAmount how much the player gets at the plain rate
+	 * @param taken what the player gives
+	 * @param takenAmount how much the player gives at the plain rate
+	 * @param held how much of the taken material the player has
+	 * @param stocked how much of the given material the shop has
+	 * @return the largest multiple, or 1 if not even a single trade can be made
+	 */
+	private int getMaxMultiple(
+			final ItemStack[] contents,
+			final ItemStack[] shop,
+			final ShopMaterial given,
+			final int givenAmount,
+			final ShopMaterial taken,
+			final int takenAmount,
+			final int held,
+			final int stocked
+			) {
+		int high = Integer.MAX_VALUE;
+		if (givenAmount > 0) {
+			high = Math.min(high, stocked / givenAmount);
+		}
+		if (takenAmount > 0) {
+			high = Math.min(high, held / takenAmount);
+		}
+		if (givenAmount <= 0 && takenAmount <= 0 || high <= 1) return 1;
+
+		if (!canExchange(contents, shop, given, givenAmount, taken, takenAmount)) return 1;
+
+		int low = 1;
+		while (low < high) {
+			final int middle = low + (high - low + 1) / 2;
+			if (canExchange(contents, shop, given, givenAmount * middle, taken, takenAmount * middle)) {
+				low = middle;
+			} else {
+				high = middle - 1;
+			}
+		}
+		return low;
+	}
+	/**
+	 * Finds the largest number of times over the sell rate that the player can sell at once
+	 * @param player player selling
+	 * @return the multiple to sell, or 1 if not even a single sale can be made
+	 */
+	public int getMaxSellMultiple(final Player player) {
+		return getMaxSellMultiple(player, getShopInventory(), getShopSellCapital());
+	}
+	/**
+	 * Finds the largest number of times over the sell rate that the player can sell at once to one inventory
+	 * @param player player selling
+	 * @param shop the inventory to sell to, or null if it has unlimited room
+	 * @param stocked how much of the shop's selling currency said inventory holds
+	 * @return the multiple to sell, or 1 if not even a single sale can be made
+	 */
+	protected int getMaxSellMultiple(final Player player, final Inventory shop, final int stocked) {
+		if (!canSell()) return 1;
+		final Inventory inventory = player.getInventory();
+		return getMaxMultiple(
+			inventory.getContents(),
+			shop == null ? null : shop.getContents(),
+			getSellCurrency(),
+			getSellRate().getPrice(),
+			material,
+			getSellRate().getAmount(),
+			InventoryHelpers.getCount(inventory, material),
+			stocked
+			);
+	}
 	/**
 	 * @return the owner of this shop
 	 */
@@ -218,6 +353,12 @@ public class Shop {
 	public int getShopBuyCapital() {
 		return Integer.MAX_VALUE;
 	}
+	/**
+	 * @return the inventory the shop trades from, or null if the shop has unlimited stock
+	 */
+	protected Inventory getShopInventory() {
+		return null;
+	}
 	/**
 	 * @return the amount of the shop's material currently stored
 	 */
@@ -241,14 +382,7 @@ public class Shop {
 	}
 	@Override
 	public int hashCode() {
-		if(hash == 0 && sign != null) {
-			final Block block = sign.getBlock();
-			hash = block.getWorld().hashCode();
-			hash = hash * 17 ^ block.getY();
-			hash = hash * 19 ^ block.getX();
-			hash = hash * 23 ^ block.getZ();
-		}
-		return hash;
+		return key == null ? 0 : key.hashCode();
 	}
 	/**
 	 * This method is called when a player right-clicks the sign. It considers the item in player's hand, and will act accordingly.
@@ -256,16 +390,20 @@ public class Shop {
 	 * @param plugin The active PhysicalShop plugin
 	 */
 	public void interact(final Player player, final PhysicalShop plugin) {
-		final ShopMaterial item = new ShopMaterial(player.getItemInHand());
+		final ItemStack item = player.getItemInHand();
+		final boolean buying;
+		if (canBuy() && getBuyCurrency().matches(item)) {
+			buying = true;
+		} else if (material.matches(item)) {
+			buying = false;
+		} else return;
 		try {
-			if (item.equals(getBuyCurrency())) {
-				if(buy(player, plugin)) {
-					triggerRedstone(plugin);
-				}
-			} else if (item.equals(material)) {
-				if(sell(player, plugin)) {
-					triggerRedstone(plugin);
-				}
+			if (player.isSneaking() && plugin.getPluginConfig().isBulkTrade()) {
+				trade(player, plugin, buying, buying ? getMaxBuyMultiple(player) : getMaxSellMultiple(player));
+			} else if (plugin.getPluginConfig().isBatchTrades()) {
+				plugin.getTradeBatcher().queue(player, this, buying);
+			} else {
+				trade(player, plugin, buying, 1);
 			}
 		} catch (final Throwable t) {
 			plugin.getLogger().log(SEVERE, "A problem has occured, please copy and report this entire stacktrace to the author(s)", t);
@@ -276,13 +414,7 @@ public class Shop {
 	 * @return true if said block is the sign for this chest or the sign for this shop is attached to said block
 	 */
 	public boolean isShopBlock(final Block block) {
-		final Block signBlock = sign.getBlock();
-
-		if (block.equals(signBlock)) return true;
-
-		final org.bukkit.material.Sign signData = (org.bukkit.material.Sign) sign.getData();
-
-		return block.equals(signBlock.getRelative(signData.getAttachedFace()));
+		return block.equals(sign.getBlock()) || block.equals(getAttachedBlock());
 	}
 	/**
 	 * @param player Player to check
@@ -294,11 +426,35 @@ public class Shop {
 			? NameCollection.matches(ownerName, player)
 			: ownerName.equals(player);
 	}
-	private void queryLogBlock(final Player player, final boolean selling, final PhysicalShop plugin) {
+	/**
+	 * Plans the shop's side of a purchase, without making it. Failures are reported to the player.
+	 * This shop has unlimited stock, so there is nothing to plan.
+	 * @param player player purchasing
+	 * @param plugin The active PhysicalShop plugin
+	 * @param transaction the trade to add the shop's side to
+	 * @param multiple how many times over the rate is being bought
+	 * @return true if the shop's side can be made
+	 */
+	protected boolean planBuy(final Player player, final PhysicalShop plugin, final Transaction transaction, final int multiple) {
+		return true;
+	}
+	/**
+	 * Plans the shop's side of a sale, without making it. Failures are reported to the player.
+	 * This shop has unlimited funds, so there is nothing to plan.
+	 * @param player player selling
+	 * @param plugin The active PhysicalShop plugin
+	 * @param transaction the trade to add the shop's side to
+	 * @param multiple how many times over the rate is being sold
+	 * @return true if the shop's side can be made
+	 */
+	protected boolean planSell(final Player player, final PhysicalShop plugin, final Transaction transaction, final int multiple) {
+		return true;
+	}
+	private void queryLogBlock(final Player player, final boolean selling, final PhysicalShop plugin, final int multiple) {
 		if (plugin.getLogBlock() == null) return;
 		final Location chestLocation = sign.getBlock().getRelative(BlockFace.DOWN).getLocation();
-		final short currencyDeposited = (short) (selling ? -getSellRate().getPrice() : getBuyRate().getPrice());
-		final short materialDeposited = (short) (selling ? getSellRate().getAmount() : -getBuyRate().getAmount());
+		final short currencyDeposited = (short) (multiple * (selling ? -getSellRate().getPrice() : getBuyRate().getPrice()));
+		final short materialDeposited = (short) (multiple * (selling ? getSellRate().getAmount() : -getBuyRate().getAmount()));
 		if(currencyDeposited != 0) {
 			plugin
 				.getLogBlock()
@@ -338,21 +494,25 @@ public class Shop {
 	 * performs sell operation for player
 	 * @param player player to sell something to shop
 	 * @param plugin The active PhysicalShop plugin
+	 * @param multiple how many times over to sell at the shop's rate
 	 * @return true if successful
 	 */
-	protected boolean sell(final Player player, final PhysicalShop plugin) {
+	protected boolean sell(final Player player, final PhysicalShop plugin, final int multiple) {
 		if (!canSell()) {
 			plugin.getLocale().sendMessage(player, NO_SELL);
 			return false;
 		}
 
+		final Transaction transaction = new Transaction();
+		if (!planSell(player, plugin, transaction, multiple)) return false;
+
 		final Inventory inventory = player.getInventory();
 
-		final int price = getSellRate().getPrice();
-		final int amount = getSellRate().getAmount();
+		final int price = getSellRate().getPrice() * multiple;
+		final int amount = getSellRate().getAmount() * multiple;
 
 		try {
-			InventoryHelpers.exchange(inventory, getSellCurrency().getStack(price), material.getStack(amount));
+			transaction.add(inventory, ExchangePlan.plan(inventory, getSellCurrency().getStack(price), material.getStack(amount)));
 		} catch (final InvalidExchangeException e) {
 			switch (e.getType()) {
 			case ADD:
@@ -366,6 +526,8 @@ public class Shop {
 			return false;
 		}
 
+		transaction.commit();
+
 		updateInventory(player); // player.updateInventory();
 
 		plugin.getLocale().sendMessage(
@@ -377,7 +539,7 @@ public class Shop {
 			getSellCurrency().toString(plugin.getMaterialConfig())
 			);
 
-		queryLogBlock(player, true, plugin);
+		queryLogBlock(player, true, plugin, multiple);
 		return true;
 	}
 	/**
@@ -386,7 +548,17 @@ public class Shop {
 	 * @param plugin The active PhysicalShop plugin
 	 */
 	public void status(final Player p, final PhysicalShop plugin) {
-		if (canBuy() && (getShopItems() >= buyRate.getAmount())) {
+		status(p, plugin, getShopItems(), getShopSellCapital());
+	}
+	/**
+	 * Messages player p the rates for current Shop, that the shop has the stock for.
+	 * @param p the player to message
+	 * @param plugin The active PhysicalShop plugin
+	 * @param items the amount of the shop's material currently stored
+	 * @param sellCapital the amount of currency in this shop for selling
+	 */
+	protected void status(final Player p, final PhysicalShop plugin, final int items, final int sellCapital) {
+		if (canBuy() && (items >= buyRate.getAmount())) {
 			plugin.getLocale().sendMessage(
 				p,
 				BUY_RATE,
@@ -397,7 +569,7 @@ public class Shop {
 				);
 		}
 
-		if (canSell() && (getShopSellCapital() >= sellRate.getPrice())) {
+		if (canSell() && (sellCapital >= sellRate.getPrice())) {
 			plugin.getLocale().sendMessage(
 				p,
 				SELL_RATE,
@@ -408,6 +580,18 @@ public class Shop {
 				);
 		}
 	}
+	/**
+	 * Makes a trade for player, triggering redstone if it succeeds
+	 * @param player the player trading
+	 * @param plugin The active PhysicalShop plugin
+	 * @param buying true if the player is buying, false if selling
+	 * @param multiple how many times over to trade at the shop's rate
+	 */
+	public void trade(final Player player, final PhysicalShop plugin, final boolean buying, final int multiple) {
+		if (buying ? buy(player, plugin, multiple) : sell(player, plugin, multiple)) {
+			triggerRedstone(plugin);
+		}
+	}
 	private void triggerRedstone(final PhysicalShop plugin) {
 		if(!plugin.getConfig().getBoolean(TRIGGER_REDSTONE)) return;
 		final BlockFace face = ShopHelpers.getBack(sign);
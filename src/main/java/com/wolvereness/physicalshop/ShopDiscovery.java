@@ -0,0 +1,149 @@
+package com.wolvereness.physicalshop;
+
+import static org.bukkit.Material.*;
+
+import org.bukkit.Chunk;
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.world.ChunkLoadEvent;
+
+import com.wolvereness.physicalshop.config.StandardConfig;
+
+/**
+ * Finds the shops in newly loaded chunks.<br>
+ * The chunk is copied on the main thread, searched for signs over containers
+ * on a worker thread, and only those candidate signs are read and parsed back
+ * on the main thread.
+ * Licensed under GNU GPL v3
+ * @author Wolfe
+ */
+public class ShopDiscovery implements Listener {
+	private static class Result {
+		private final int[] candidates;
+		private final int signs;
+
+		Result(final int[] candidates, final int signs) {
+			this.candidates = candidates;
+			this.signs = signs;
+		}
+	}
+
+	private static final int MAX_ID = 4096;
+
+	private final boolean[] containers = new boolean[MAX_ID];
+	private final PhysicalShop plugin;
+	private final boolean[] signs = new boolean[MAX_ID];
+
+	/**
+	 * @param plugin The active PhysicalShop plugin
+	 */
+	public ShopDiscovery(final PhysicalShop plugin) {
+		this.plugin = plugin;
+		signs[SIGN_POST.getId()] = true;
+		signs[WALL_SIGN.getId()] = true;
+		for (final Material container : StandardConfig.CONTAINERS) {
+			containers[container.getId()] = true;
+		}
+	}
+
+	/**
+	 * Searches a snapshot for signs placed over containers, and counts all signs. Safe to call from any thread.
+	 * @param snapshot the chunk to search
+	 * @param maxHeight the height of the world
+	 * @return the candidates, packed as y &lt;&lt; 8 | z &lt;&lt; 4 | x, and the number of signs
+	 */
+	private Result findCandidates(final ChunkSnapshot snapshot, final int maxHeight) {
+		int[] candidates = new int[8];
+		int count = 0, signCount = 0;
+		for (int sectionY = 0; sectionY << 4 < maxHeight; sectionY++) {
+			if (snapshot.isSectionEmpty(sectionY)) {
+				continue;
+			}
+			for (int y = sectionY << 4, top = Math.min((sectionY + 1) << 4, maxHeight); y < top; y++) {
+				for (int z = 0; z < 16; z++) {
+					for (int x = 0; x < 16; x++) {
+						if (!signs[snapshot.getBlockTypeId(x, y, z) & (MAX_ID - 1)]) {
+							continue;
+						}
+						signCount++;
+						if (y == 0 || !containers[snapshot.getBlockTypeId(x, y - 1, z) & (MAX_ID - 1)]) {
+							continue;
+						}
+						if (count == candidates.length) {
+							final int[] grown = new int[count << 1];
+							System.arraycopy(candidates, 0, grown, 0, count);
+							candidates = grown;
+						}
+						candidates[count++] = (y << 8) | (z << 4) | x;
+					}
+				}
+			}
+		}
+		final int[] result = new int[count];
+		System.arraycopy(candidates, 0, result, 0, count);
+		return new Result(result, signCount);
+	}
+
+	/**
+	 * Starts a search of a chunk
+	 * @param e Event
+	 */
+	@EventHandler(priority = EventPriority.MONITOR)
+	public void onChunkLoad(final ChunkLoadEvent e) {
+		scan(e.getChunk());
+	}
+
+	/**
+	 * Parses the candidate signs for a chunk, and drops remembered shops that are gone
+	 */
+	private void resolve(final World world, final int chunkX, final int chunkZ, final Object scan, final Result result) {
+		if (!world.isChunkLoaded(chunkX, chunkZ)) return;
+		plugin.getShopRegistry().finishScan(world, chunkX, chunkZ, scan, result.signs);
+		final int baseX = chunkX << 4, baseZ = chunkZ << 4;
+		for (final int candidate : result.candidates) {
+			ShopHelpers.getShop(world.getBlockAt(baseX | (candidate & 0xF), candidate >> 8, baseZ | ((candidate >> 4) & 0xF)), plugin);
+		}
+		for (final ShopIndex.Record record : plugin.getShopIndex().getShops(world, chunkX, chunkZ)) {
+			final Block block = world.getBlockAt(record.getX(), record.getY(), record.getZ());
+			if (ShopHelpers.getShop(block, plugin) == null) {
+				plugin.getShopIndex().remove(block);
+			}
+		}
+	}
+
+	/**
+	 * Searches a loaded chunk for shops, off of the main thread
+	 * @param chunk the chunk to search
+	 */
+	public void scan(final Chunk chunk) {
+		final World world = chunk.getWorld();
+		final int maxHeight = world.getMaxHeight();
+		final ChunkSnapshot snapshot = chunk.getChunkSnapshot(false, false, false);
+		final Object scan = plugin.getShopRegistry().beginScan(chunk);
+		plugin.getServer().getScheduler().runTaskAsynchronously(plugin, new Runnable() {
+			public void run() {
+				final Result result = findCandidates(snapshot, maxHeight);
+				if (!plugin.isEnabled()) return;
+				plugin.getServer().getScheduler().scheduleSyncDelayedTask(plugin, new Runnable() {
+					public void run() {
+						resolve(world, snapshot.getX(), snapshot.getZ(), scan, result);
+					}});
+			}});
+	}
+
+	/**
+	 * Searches every chunk that is already loaded
+	 */
+	public void scanLoaded() {
+		for (final World world : plugin.getServer().getWorlds()) {
+			for (final Chunk chunk : world.getLoadedChunks()) {
+				scan(chunk);
+			}
+		}
+	}
+}
@@ -5,6 +5,7 @@ import static org.bukkit.Material.*;
 import static org.bukkit.block.BlockFace.*;
 
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
@@ -17,6 +18,7 @@ import org.bukkit.entity.Player;
 import org.bukkit.inventory.InventoryHolder;
 
 import com.google.common.collect.ImmutableList;
+import com.wolvereness.physicalshop.config.StandardConfig.ShopBlockType;
 import com.wolvereness.physicalshop.exception.InvalidSignException;
 
 /**
@@ -35,7 +37,7 @@ public class ShopHelpers {
 	/**
 	 * A list of block faces including the cardinal directions and up, down
 	 */
-	private static final List<BlockFace> EXTENDED_DIRECTIONS = ImmutableList.of(
+	static final List<BlockFace> EXTENDED_DIRECTIONS = ImmutableList.of(
 			SELF,
 			NORTH,
 			SOUTH,
@@ -89,56 +91,61 @@ public class ShopHelpers {
 	}
 
 	/**
-	 * Attempts to create a new shop object based on this block
+	 * Attempts to find the shop object based on this block
 	 * @param block the block to consider
 	 * @param plugin The active PhysicalShop plugin
-	 * @return null if block is not sign or said sign is invalid, otherwise a new associated {@link Shop} for this block
+	 * @return null if block is not sign or said sign is invalid, otherwise the associated {@link Shop} for this block
 	 */
 	public static Shop getShop(final Block block, final PhysicalShop plugin) {
 		if (block == null) return null;
 
 		if (block.getType() != SIGN_POST && block.getType() != WALL_SIGN) return null;
 
+		return plugin.getShopRegistry().getShop(block);
+	}
+	/**
+	 * Creates a new shop object based on this sign block, bypassing the registry
+	 * @param block the sign block to consider
+	 * @param plugin The active PhysicalShop plugin
+	 * @return null if said sign is invalid, otherwise a new associated {@link Shop} for this block
+	 */
+	static Shop parseShop(final Block block, final PhysicalShop plugin) {
 		final Sign sign = (Sign) block.getState();
 		if (sign == null) return null;
 
 		final String ownerName = Shop.getOwnerName(sign.getLines());
 
 		try {
-			final BlockState state = block.getRelative(DOWN).getState();
-			if (	state instanceof InventoryHolder
-					&& !plugin.getPluginConfig().isBlacklistedShopType(state.getType())
-					) return new ChestShop(sign, plugin, (InventoryHolder) state);
-			else if (ownerName.equalsIgnoreCase(plugin.getConfig().getString(SERVER_SHOP))) return new Shop(sign, plugin);
+			final Block below = block.getRelative(DOWN);
+			if (plugin.getPluginConfig().getBlockType(below.getType()) == ShopBlockType.CONTAINER) {
+				final BlockState state = below.getState();
+				if (state instanceof InventoryHolder) {
+					if (plugin.getPluginConfig().isVirtualStockType(below.getType())) return new VirtualShop(sign, plugin, (InventoryHolder) state);
+					if (plugin.getPluginConfig().getLinkedContainers() > 1) return new LinkedShop(sign, plugin, (InventoryHolder) state);
+					return new ChestShop(sign, plugin, (InventoryHolder) state);
+				}
+			}
+			if (ownerName.equalsIgnoreCase(plugin.getConfig().getString(SERVER_SHOP))) return new Shop(sign, plugin);
 			else return null;
 		} catch (final InvalidSignException e) {
 			return null;
 		}
 	}
 	/**
-	 * Attempts to create a chest shop based on the blockstate (being an {@link org.bukkit.inventory.InventoryHolder})
+	 * Attempts to find a chest shop based on the blockstate (being an {@link org.bukkit.inventory.InventoryHolder})
 	 * @param chest The blockstate of an inventory holder
 	 * @param plugin The currently active PhysicalShop plugin
 	 * @return null
 	 *  if the given chest block state is not an inventory holder,
 	 *  if the sign above it does not exist,
 	 *  if the sign above it is not valid,
-	 *  otherwise a newly created ChestShop
+	 *  otherwise the associated ChestShop
 	 */
 	public static ChestShop getShop(final BlockState chest, final PhysicalShop plugin) {
 		if (chest == null || !(chest instanceof InventoryHolder)) return null;
 
-		final Block signBlock = chest.getBlock().getRelative(UP);
-		if (signBlock.getType() != SIGN_POST && signBlock.getType() != WALL_SIGN) return null;
-
-		final Sign sign = (Sign) signBlock.getState();
-		if (sign == null) return null;
-
-		try {
-			return new ChestShop(sign, plugin, (InventoryHolder) chest);
-		} catch (final InvalidSignException e) {
-			return null;
-		}
+		final Shop shop = getShop(chest.getBlock().getRelative(UP), plugin);
+		return shop instanceof ChestShop ? (ChestShop) shop : null;
 	}
 	/**
 	 * Adds the shops associated with the specified block to the provided collection
@@ -159,15 +166,43 @@ public class ShopHelpers {
 		return shops;
 	}
 	/**
-	 * Adds the shops associated with the specified blocks to the provided collection
+	 * Adds the shops associated with the specified blocks to the provided collection.<br>
+	 * The neighbourhoods of the blocks are merged first, so each sign is only looked up once
+	 * no matter how many of the blocks are next to it.
 	 * @param blocks The blocks to check around
 	 * @param plugin The currently active PhysicalShop plugin
 	 * @param shops The set to add to
 	 * @return the provided collection
 	 */
 	public static Collection<Shop> getShops(final Collection<Block> blocks, final PhysicalShop plugin, final Set<Shop> shops) {
-		for (final Block block : blocks) {
-			getShops(block, plugin, shops);
+		Validate.notNull(shops, "Must provide a collection to add result to");
+		final Set<Block> batch = new HashSet<Block>(blocks);
+		final Set<Block> candidates = new HashSet<Block>();
+		for (final Block block : batch) {
+			final Shop linked = plugin.getContainerGroups().getOwner(block);
+			if (linked != null) {
+				shops.add(linked);
+			}
+			if (!plugin.getShopRegistry().isShopNear(block)) {
+				continue;
+			}
+			for (final BlockFace face : EXTENDED_DIRECTIONS) {
+				candidates.add(block.getRelative(face));
+			}
+		}
+		for (final Block candidate : candidates) {
+			final Shop shop = getShop(candidate, plugin);
+			if (shop == null) {
+				continue;
+			}
+			// Every block of a shop is next to its sign
+			for (final BlockFace face : EXTENDED_DIRECTIONS) {
+				final Block block = candidate.getRelative(face);
+				if (batch.contains(block) && shop.isShopBlock(block)) {
+					shops.add(shop);
+					break;
+				}
+			}
 		}
 		return shops;
 	}
@@ -196,16 +231,34 @@ public class ShopHelpers {
 	}
     /**
 	 * This method checks a block for shop protection for other chests near or that chest<br>
-	 * This will ONLY check for chests!
+	 * This will ONLY check for chests! The shops found are remembered by the registry.
 	 * @param block Block to chest, intended to be a chest
 	 * @param player Player to cross-check for permissions
 	 * @param plugin currently active PhysicalShop to consider
 	 * @return true if the player should be blocked
 	 */
 	public static boolean isProtectedChestsAround(final Block block, final Player player, final PhysicalShop plugin) {
-		for (final BlockFace blockFace : CARDINAL_DIRECTIONS) {
-			final Block checkBlock = block.getRelative(blockFace);
-			if(checkBlock.getType() == CHEST && !hasAccess(player, checkBlock.getRelative(UP), plugin)) return true;
+		for (final Shop shop : plugin.getShopRegistry().getChestProtectors(block)) {
+			if (!hasAccess(player.getName(), shop, plugin)) return true;
+		}
+		return false;
+	}
+	/**
+	 * This method checks a container for protection by the shop it is linked to.<br>
+	 * A chest is also checked through the chests next to it, that it may share its inventory with.
+	 * @param block Block to check, intended to be a container
+	 * @param player Player to cross-check for permissions
+	 * @param plugin currently active PhysicalShop to consider
+	 * @return true if the player should be blocked
+	 */
+	public static boolean isProtectedLinked(final Block block, final Player player, final PhysicalShop plugin) {
+		for (final BlockFace face : CARDINAL_DIRECTIONS) {
+			final Block container = block.getRelative(face);
+			if (face != SELF && (block.getType() != CHEST || container.getType() != CHEST)) {
+				continue;
+			}
+			final Shop shop = plugin.getContainerGroups().getOwner(container);
+			if (shop != null && !hasAccess(player.getName(), shop, plugin)) return true;
 		}
 		return false;
 	}
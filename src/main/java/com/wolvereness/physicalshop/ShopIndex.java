@@ -0,0 +1,375 @@
+package com.wolvereness.physicalshop;
+
+import static java.util.logging.Level.SEVERE;
+import static java.util.logging.Level.WARNING;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.world.WorldSaveEvent;
+
+import com.wolvereness.util.LongObjectMap;
+
+/**
+ * Remembers where shops are across restarts, without needing their chunks loaded.<br>
+ * The index is kept in memory, and written to a checksummed binary file in the data
+ * folder when a world saves and when the plugin is disabled, if anything changed.
+ * Licensed under GNU GPL v3
+ * @author Wolfe
+ */
+public class ShopIndex implements Listener {
+	/**
+	 * A remembered shop
+	 */
+	public static class Record {
+		private final Rate buyRate;
+		private final ShopMaterial material;
+		private final String ownerName;
+		private final long position;
+		private final Rate sellRate;
+		private final String world;
+
+		Record(final String world, final long position, final String ownerName, final ShopMaterial material, final Rate buyRate, final Rate sellRate) {
+			this.world = world;
+			this.position = position;
+			this.ownerName = ownerName;
+			this.material = material;
+			this.buyRate = buyRate;
+			this.sellRate = sellRate;
+		}
+
+		/**
+		 * @return the rate associated with buying, or null if the shop does not sell
+		 */
+		public Rate getBuyRate() {
+			return buyRate;
+		}
+
+		/**
+		 * @return the material associated with the shop
+		 */
+		public ShopMaterial getMaterial() {
+			return material;
+		}
+
+		/**
+		 * @return the owner of the shop
+		 */
+		public String getOwnerName() {
+			return ownerName;
+		}
+
+		/**
+		 * @return the rate associated with selling, or null if the shop does not buy
+		 */
+		public Rate getSellRate() {
+			return sellRate;
+		}
+
+		/**
+		 * @return the name of the world the sign is in
+		 */
+		public String getWorld() {
+			return world;
+		}
+
+		/**
+		 * @return x coordinate of the sign
+		 */
+		public int getX() {
+			return ShopKey.getX(position);
+		}
+
+		/**
+		 * @return y coordinate of the sign
+		 */
+		public int getY() {
+			return ShopKey.getY(position);
+		}
+
+		/**
+		 * @return z coordinate of the sign
+		 */
+		public int getZ() {
+			return ShopKey.getZ(position);
+		}
+	}
+
+	private static final String FILE_NAME = "shops.dat";
+	private static final int MAGIC = 0x50534958; // PSIX
+	private static final int VERSION = 1;
+
+	private static ShopMaterial readMaterial(final DataInputStream in) throws IOException {
+		final Material material = Material.getMaterial(in.readInt());
+		final short durability = in.readShort();
+		return material == null ? null : ShopMaterial.valueOf(material, durability);
+	}
+
+	private static Rate readRate(final DataInputStream in) throws IOException {
+		if (!in.readBoolean()) return null;
+		final int amount = in.readInt();
+		final int price = in.readInt();
+		final ShopMaterial currency = readMaterial(in);
+		return currency == null ? null : new Rate(amount, price, currency);
+	}
+
+	private static boolean sameRate(final Rate a, final Rate b) {
+		if (a == null || b == null) return a == b;
+		return a.getAmount() == b.getAmount()
+			&& a.getPrice() == b.getPrice()
+			&& a.getMaterial().equals(b.getMaterial());
+	}
+
+	private static void writeMaterial(final DataOutputStream out, final ShopMaterial material) throws IOException {
+		out.writeInt(material.getMaterial().getId());
+		out.writeShort(material.getDurability());
+	}
+
+	private static void writeRate(final DataOutputStream out, final Rate rate) throws IOException {
+		out.writeBoolean(rate != null);
+		if (rate == null) return;
+		out.writeInt(rate.getAmount());
+		out.writeInt(rate.getPrice());
+		writeMaterial(out, rate.getMaterial());
+	}
+
+	private final PhysicalShop plugin;
+	private final SnapshotFile snapshot;
+	private final Map<String, LongObjectMap<LongObjectMap<Record>>> worlds = new HashMap<String, LongObjectMap<LongObjectMap<Record>>>();
+
+	/**
+	 * @param plugin The active PhysicalShop plugin
+	 */
+	public ShopIndex(final PhysicalShop plugin) {
+		this.plugin = plugin;
+		this.snapshot = new SnapshotFile(plugin, FILE_NAME, "shop index");
+	}
+
+	/**
+	 * @param block the sign block to check
+	 * @return true if a shop is remembered at said block
+	 */
+	public boolean contains(final Block block) {
+		final LongObjectMap<Record> records = getChunk(block.getWorld().getName(), block, false);
+		return records != null && records.containsKey(ShopKey.pack(block));
+	}
+
+	private LongObjectMap<Record> getChunk(final String world, final Block block, final boolean create) {
+		return getChunk(world, ShopRegistry.chunkKey(block.getX() >> 4, block.getZ() >> 4), create);
+	}
+
+	private LongObjectMap<Record> getChunk(final String world, final long chunkKey, final boolean create) {
+		LongObjectMap<LongObjectMap<Record>> chunks = worlds.get(world);
+		if (chunks == null) {
+			if (!create) return null;
+			worlds.put(world, chunks = new LongObjectMap<LongObjectMap<Record>>());
+		}
+		LongObjectMap<Record> records = chunks.get(chunkKey);
+		if (records == null && create) {
+			chunks.put(chunkKey, records = new LongObjectMap<Record>());
+		}
+		return records;
+	}
+
+	/**
+	 * @param world the world to consider
+	 * @return a copy of the shops remembered in said world
+	 */
+	public Collection<Record> getShops(final World world) {
+		final List<Record> shops = new ArrayList<Record>();
+		final LongObjectMap<LongObjectMap<Record>> chunks = worlds.get(world.getName());
+		if (chunks == null) return shops;
+		for (final LongObjectMap<Record> records : chunks.values()) {
+			shops.addAll(records.values());
+		}
+		return shops;
+	}
+
+	/**
+	 * @param world the world to consider
+	 * @param chunkX x coordinate of the chunk
+	 * @param chunkZ z coordinate of the chunk
+	 * @return the shops remembered in said chunk
+	 */
+	public Collection<Record> getShops(final World world, final int chunkX, final int chunkZ) {
+		final LongObjectMap<Record> records = getChunk(world.getName(), ShopRegistry.chunkKey(chunkX, chunkZ), false);
+		if (records == null) return new ArrayList<Record>(0);
+		return records.values();
+	}
+
+	/**
+	 * Reads the index from disk. A missing, stale, or corrupt file leaves the index empty, to be rebuilt as shops are found.
+	 */
+	public void load() {
+		worlds.clear();
+		snapshot.setDirty(false);
+		final File file = snapshot.getFile();
+		if (!file.exists()) return;
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				plugin.getLogger().warning("Shop index " + file + " is from another version, it will be rebuilt");
+				snapshot.setDirty(true);
+				return;
+			}
+			final long checksum = in.readLong();
+			final int length = in.readInt();
+			if (length < 0 || length > file.length()) throw new IOException("Invalid length " + length);
+			final byte[] body = new byte[length];
+			in.readFully(body);
+			final CRC32 crc = new CRC32();
+			crc.update(body);
+			if (crc.getValue() != checksum) {
+				plugin.getLogger().warning("Shop index " + file + " is corrupt, it will be rebuilt");
+				snapshot.setDirty(true);
+				return;
+			}
+			read(new DataInputStream(new ByteArrayInputStream(body)));
+		} catch (final IOException ex) {
+			plugin.getLogger().log(WARNING, "Failed to read shop index " + file + ", it will be rebuilt", ex);
+			worlds.clear();
+			snapshot.setDirty(true);
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (final IOException e) {}
+			}
+		}
+	}
+
+	/**
+	 * Writes the index if it changed since the last save
+	 * @param e Event
+	 */
+	@EventHandler(priority = EventPriority.MONITOR)
+	public void onWorldSave(final WorldSaveEvent e) {
+		save(true);
+	}
+
+	private void read(final DataInputStream in) throws IOException {
+		for (int worldCount = in.readInt(); worldCount > 0; worldCount--) {
+			final String world = in.readUTF();
+			for (int count = in.readInt(); count > 0; count--) {
+				final long position = in.readLong();
+				final String owner = in.readUTF();
+				final ShopMaterial material = readMaterial(in);
+				final Rate buyRate = readRate(in);
+				final Rate sellRate = readRate(in);
+				if (material == null || (buyRate == null && sellRate == null)) {
+					snapshot.setDirty(true);
+					continue;
+				}
+				final Record record = new Record(world, position, owner, material, buyRate, sellRate);
+				getChunk(world, ShopRegistry.chunkKey(record.getX() >> 4, record.getZ() >> 4), true).put(position, record);
+			}
+		}
+	}
+
+	/**
+	 * Forgets the shop, if any, at the specified sign block
+	 * @param block the sign block
+	 */
+	public void remove(final Block block) {
+		final long chunkKey = ShopRegistry.chunkKey(block.getX() >> 4, block.getZ() >> 4);
+		final LongObjectMap<Record> records = getChunk(block.getWorld().getName(), chunkKey, false);
+		if (records == null || records.remove(ShopKey.pack(block)) == null) return;
+		snapshot.setDirty(true);
+		if (records.isEmpty()) {
+			worlds.get(block.getWorld().getName()).remove(chunkKey);
+		}
+	}
+
+	/**
+	 * Writes the whole index to disk, if it changed. If the write fails, the index stays changed and is written on the next save.
+	 * @param async true to write the file off of the main thread
+	 */
+	public void save(final boolean async) {
+		if (!snapshot.isDirty()) return;
+		final byte[] contents;
+		try {
+			final byte[] body = write();
+			final CRC32 crc = new CRC32();
+			crc.update(body);
+			final ByteArrayOutputStream bytes = new ByteArrayOutputStream(body.length + 20);
+			final DataOutputStream out = new DataOutputStream(bytes);
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(crc.getValue());
+			out.writeInt(body.length);
+			out.write(body);
+			out.flush();
+			contents = bytes.toByteArray();
+		} catch (final IOException ex) {
+			plugin.getLogger().log(SEVERE, "Failed to serialize shop index", ex);
+			return;
+		}
+		snapshot.save(contents, async);
+	}
+
+	/**
+	 * Remembers the state of a sign block, that was just parsed
+	 * @param block the sign block
+	 * @param shop the shop found at said block, or null if it is not a shop
+	 */
+	public void update(final Block block, final Shop shop) {
+		if (shop == null) {
+			remove(block);
+			return;
+		}
+		final String world = block.getWorld().getName();
+		final LongObjectMap<Record> records = getChunk(world, block, true);
+		final long position = ShopKey.pack(block);
+		final Record old = records.get(position);
+		if (	old != null
+				&& old.ownerName.equals(shop.getOwnerName())
+				&& old.material.equals(shop.getMaterial())
+				&& sameRate(old.buyRate, shop.getBuyRate())
+				&& sameRate(old.sellRate, shop.getSellRate())
+				) return;
+		records.put(position, new Record(world, position, shop.getOwnerName(), shop.getMaterial(), shop.getBuyRate(), shop.getSellRate()));
+		snapshot.setDirty(true);
+	}
+
+	private byte[] write() throws IOException {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(worlds.size());
+		for (final Map.Entry<String, LongObjectMap<LongObjectMap<Record>>> world : worlds.entrySet()) {
+			final List<Record> records = new ArrayList<Record>();
+			for (final LongObjectMap<Record> chunk : world.getValue().values()) {
+				records.addAll(chunk.values());
+			}
+			out.writeUTF(world.getKey());
+			out.writeInt(records.size());
+			for (final Record record : records) {
+				out.writeLong(record.position);
+				out.writeUTF(record.ownerName);
+				writeMaterial(out, record.material);
+				writeRate(out, record.buyRate);
+				writeRate(out, record.sellRate);
+			}
+		}
+		out.flush();
+		return bytes.toByteArray();
+	}
+}
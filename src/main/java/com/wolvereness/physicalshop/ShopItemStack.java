@@ -4,15 +4,16 @@ import org.bukkit.inventory.ItemStack;
 
 /**
  * Represents a stack of a particular item
- *
+ * @deprecated only made by {@link InventoryHelpers#getItems(org.bukkit.inventory.Inventory)}; trades use {@link ExchangePlan}
  */
+@Deprecated
 public class ShopItemStack {
 
 	private final int amount;
 	private final ShopMaterial material;
 
 	ShopItemStack(final ItemStack itemStack) {
-		material = new ShopMaterial(itemStack);
+		material = ShopMaterial.valueOf(itemStack);
 		amount = itemStack.getAmount();
 	}
 
@@ -0,0 +1,123 @@
+package com.wolvereness.physicalshop;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import org.bukkit.World;
+import org.bukkit.block.Block;
+
+/**
+ * Identifies the position of a shop sign; a small index for the world, and the block
+ * coordinates packed into a long as x (26 bits), z (26 bits), y (12 bits).<br>
+ * Worlds keep their index for as long as the server runs, even across unloading.
+ * Licensed under GNU GPL v3
+ * @author Wolfe
+ */
+public final class ShopKey {
+	private static final Map<UUID, Integer> worldIndices = new HashMap<UUID, Integer>();
+
+	/**
+	 * @param position a packed position
+	 * @return the x coordinate of said position
+	 */
+	public static int getX(final long position) {
+		return (int) (position >> 38);
+	}
+
+	/**
+	 * @param position a packed position
+	 * @return the y coordinate of said position
+	 */
+	public static int getY(final long position) {
+		return (int) (position & 0xFFF);
+	}
+
+	/**
+	 * @param position a packed position
+	 * @return the z coordinate of said position
+	 */
+	public static int getZ(final long position) {
+		return (int) (position << 26 >> 38);
+	}
+
+	/**
+	 * @param block the block to consider
+	 * @return the key for said block
+	 */
+	public static ShopKey of(final Block block) {
+		return new ShopKey(worldIndex(block.getWorld()), pack(block));
+	}
+
+	/**
+	 * @param block the block to consider
+	 * @return the packed position of said block
+	 */
+	public static long pack(final Block block) {
+		return pack(block.getX(), block.getY(), block.getZ());
+	}
+
+	/**
+	 * @param x x coordinate
+	 * @param y y coordinate
+	 * @param z z coordinate
+	 * @return the packed position
+	 */
+	public static long pack(final int x, final int y, final int z) {
+		return ((long) (x & 0x3FFFFFF) << 38)
+			| ((long) (z & 0x3FFFFFF) << 12)
+			| (y & 0xFFF);
+	}
+
+	/**
+	 * @param world the world to consider
+	 * @return the index for said world
+	 */
+	public static int worldIndex(final World world) {
+		Integer index = worldIndices.get(world.getUID());
+		if (index == null) {
+			worldIndices.put(world.getUID(), index = worldIndices.size());
+		}
+		return index;
+	}
+
+	private final long position;
+	private final int world;
+
+	/**
+	 * @param world the index of the world
+	 * @param position the packed position
+	 */
+	public ShopKey(final int world, final long position) {
+		this.world = world;
+		this.position = position;
+	}
+
+	@Override
+	public boolean equals(final Object o) {
+		if (o == this) return true;
+		if (!(o instanceof ShopKey)) return false;
+		final ShopKey that = (ShopKey) o;
+		return this.position == that.position && this.world == that.world;
+	}
+
+	/**
+	 * @return the packed position
+	 */
+	public long getPosition() {
+		return position;
+	}
+
+	/**
+	 * @return the index of the world
+	 */
+	public int getWorld() {
+		return world;
+	}
+
+	@Override
+	public int hashCode() {
+		final long hash = (position ^ world) * 0x9E3779B97F4A7C15L;
+		return (int) (hash ^ (hash >>> 32));
+	}
+}
@@ -1,16 +1,12 @@
 package com.wolvereness.physicalshop;
 
 import org.bukkit.Bukkit;
-import org.bukkit.CoalType;
-import org.bukkit.DyeColor;
 import org.bukkit.Material;
-import org.bukkit.TreeSpecies;
 import org.bukkit.inventory.ItemStack;
 import org.bukkit.inventory.meta.ItemMeta;
 import org.bukkit.material.Coal;
 import org.bukkit.material.Dye;
 import org.bukkit.material.Leaves;
-import org.bukkit.material.MaterialData;
 import org.bukkit.material.MonsterEggs;
 import org.bukkit.material.Sandstone;
 import org.bukkit.material.SmoothBrick;
@@ -24,6 +20,10 @@ import com.wolvereness.physicalshop.exception.InvalidMaterialException;
  *
  */
 public class ShopMaterial {
+	/**
+	 * Shared instances without item meta, indexed by material ordinal and then durability. Rows grow as needed.
+	 */
+	private static final ShopMaterial[][] FLYWEIGHTS = new ShopMaterial[Material.values().length][];
 	private static String toHumanReadableString(final Object object) {
 		final StringBuilder sb = new StringBuilder();
 
@@ -38,12 +38,49 @@ public class ShopMaterial {
 
 		return sb.toString();
 	}
+	/**
+	 * Finds the material of an item stack. Items without meta share one instance per type and durability;
+	 * only items with meta make a new instance.
+	 * @param itemStack items to derive the material from
+	 * @return the material of said items
+	 */
+	public static ShopMaterial valueOf(final ItemStack itemStack) {
+		if (itemStack.hasItemMeta()) {
+			final ItemMeta meta = itemStack.getItemMeta();
+			if (!Bukkit.getItemFactory().equals(meta, null)) return new ShopMaterial(itemStack.getType(), itemStack.getDurability(), meta);
+		}
+		return valueOf(itemStack.getType(), itemStack.getDurability());
+	}
+	/**
+	 * Finds the shared instance for a type and durability, without item meta
+	 * @param material the bukkit material
+	 * @param durability the durability, where a negative durability is not shared
+	 * @return the material for said type and durability
+	 */
+	public static ShopMaterial valueOf(final Material material, final short durability) {
+		if (material == null || durability < 0) return new ShopMaterial(material, durability, null);
+		ShopMaterial[] row = FLYWEIGHTS[material.ordinal()];
+		if (row == null || row.length <= durability) {
+			final ShopMaterial[] grown = new ShopMaterial[Math.max(16, Integer.highestOneBit(durability) << 1)];
+			if (row != null) {
+				System.arraycopy(row, 0, grown, 0, row.length);
+			}
+			FLYWEIGHTS[material.ordinal()] = row = grown;
+		}
+		ShopMaterial shared = row[durability];
+		if (shared == null) {
+			row[durability] = shared = new ShopMaterial(material, durability, null);
+		}
+		return shared;
+	}
 	private final short durability;
 	private final Material material;
 	private final ItemMeta meta;
 	/**
 	 * @param itemStack items to derive this material from
+	 * @deprecated use {@link #valueOf(ItemStack)}, which shares instances
 	 */
+	@Deprecated
 	public ShopMaterial(final ItemStack itemStack) {
 		this(itemStack.getType(), itemStack.getDurability(), itemStack.hasItemMeta() ? itemStack.getItemMeta() : null);
 	}
@@ -53,41 +90,20 @@ public class ShopMaterial {
 	                    final ItemMeta meta) {
 		this.material = material;
 		this.durability = durability;
-		this.meta = Bukkit.getItemFactory().equals(meta, null) ? null : meta;
+		this.meta = meta == null || Bukkit.getItemFactory().equals(meta, null) ? null : meta;
 	}
 	/**
 	 * @param string input string
 	 * @throws InvalidMaterialException if material invalid
+	 * @deprecated use {@link MaterialIndex#parse(String)}, which shares instances and returns null for invalid materials
 	 */
+	@Deprecated
 	public ShopMaterial(final String string) throws InvalidMaterialException {
+		final ShopMaterial parsed = MaterialIndex.parse(string);
+		if (parsed == null) throw new InvalidMaterialException();
+		material = parsed.material;
+		durability = parsed.durability;
 		meta = null;
-		final String[] strings = string.split(":");
-
-		if (strings.length == 2) {
-			material = Material.matchMaterial(strings[0].trim());
-			try {
-				durability = Short.parseShort(strings[1].trim());
-			} catch (final NumberFormatException ex) {
-				throw new InvalidMaterialException();
-			}
-			return;
-		}
-
-		Material material = null;
-
-		for (int i = 0; i < string.length(); ++i) {
-			if ((i == 0) || (string.charAt(i) == ' ')) {
-				material = Material.matchMaterial(string.substring(i).trim());
-
-				if (material != null) {
-					this.material = material;
-					durability = parseDurability(string.substring(0, i).trim(), material);
-					return;
-				}
-			}
-		}
-
-		throw new InvalidMaterialException();
 	}
 	@Override
 	public boolean equals(final Object obj) {
@@ -96,6 +112,7 @@ public class ShopMaterial {
 		final ShopMaterial other = (ShopMaterial) obj;
 		if (durability != other.durability) return false;
 		if (material != other.material) return false;
+		if (meta == null || other.meta == null) return meta == other.meta;
 		return Bukkit.getItemFactory().equals(meta, other.meta);
 	}
 	/**
@@ -125,54 +142,33 @@ public class ShopMaterial {
 	public int hashCode() {
 		return material.ordinal() + durability * 31;
 	}
+	/**
+	 * Checks if an item stack is of this material, without making a material for it.
+	 * For a material without meta, nothing is allocated.
+	 * @param itemStack the items to check, can be null
+	 * @return true if said items have this type, durability and meta
+	 */
+	public boolean matches(final ItemStack itemStack) {
+		if (itemStack == null || itemStack.getType() != material || itemStack.getDurability() != durability) return false;
+		if (!itemStack.hasItemMeta()) return meta == null;
+		// Empty meta counts as no meta, as it does for ItemStack.isSimilar
+		return Bukkit.getItemFactory().equals(meta, itemStack.getItemMeta());
+	}
+	/**
+	 * Checks if a stack without meta is of this material, ignoring any meta of this material
+	 * @param type the type of the stack
+	 * @param durability the durability of the stack
+	 * @return true if said type and durability are those of this material
+	 */
+	public boolean matches(final Material type, final short durability) {
+		return type == material && durability == this.durability;
+	}
 
 	@SuppressWarnings("javadoc")
 	@Deprecated
 	public short parseDurability(final String string,final Material material) {
-		try {
-			return Short.parseShort(string);
-		} catch (final NumberFormatException e) {
-		}
-
-		final String s = string.replace(' ', '_').toUpperCase();
-		MaterialData data = null;
-
-		try {
-			switch (material) {
-			case COAL:
-				data = new Coal(CoalType.valueOf(s));
-				break;
-			case WOOD:
-			case LOG:
-				data = new Tree(TreeSpecies.valueOf(s));
-				break;
-			case LEAVES:
-				data = new Leaves(TreeSpecies.valueOf(s));
-				break;
-			case STEP:
-			case DOUBLE_STEP:
-				data = new Step(Material.valueOf(s));
-				break;
-			case INK_SACK:
-				data = new Dye();
-				((Dye) data).setColor(DyeColor.valueOf(s));
-				break;
-			case WOOL:
-				data = new Wool(DyeColor.valueOf(s));
-				break;
-			case MONSTER_EGGS:
-				data = new MonsterEggs(Material.valueOf(s));
-				break;
-			case SMOOTH_BRICK:
-				data = new SmoothBrick(Material.valueOf(s));
-				break;
-			case SANDSTONE:
-				data = new Sandstone(Material.valueOf(s));
-			}
-		} catch (final IllegalArgumentException e) {
-		}
-
-		return data == null ? 0 : (short) data.getData();
+		final int durability = MaterialIndex.getDurability(material, string.trim().replace(' ', '_').toUpperCase());
+		return durability == MaterialIndex.NOT_FOUND ? 0 : (short) durability;
 	}//*/
 
 	@Override
@@ -185,7 +181,7 @@ public class ShopMaterial {
 	 * @return an appropriate string representing this shop material
 	 */
 	public String toString(final MaterialConfig materialConfig) {
-		return materialConfig.isConfigured(this) ? materialConfig.toString(this) : toString();
+		return materialConfig.getDisplayName(this);
 	}
 	/**
 	 * Adds information to
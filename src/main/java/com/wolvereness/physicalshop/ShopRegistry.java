@@ -0,0 +1,480 @@
+package com.wolvereness.physicalshop;
+
+import static org.bukkit.Material.CHEST;
+import static org.bukkit.Material.SIGN_POST;
+import static org.bukkit.Material.WALL_SIGN;
+import static org.bukkit.block.BlockFace.DOWN;
+import static org.bukkit.block.BlockFace.UP;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.bukkit.Chunk;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockFace;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.block.BlockBreakEvent;
+import org.bukkit.event.block.BlockBurnEvent;
+import org.bukkit.event.block.BlockFadeEvent;
+import org.bukkit.event.block.BlockPistonExtendEvent;
+import org.bukkit.event.block.BlockPistonRetractEvent;
+import org.bukkit.event.block.BlockPlaceEvent;
+import org.bukkit.event.block.LeavesDecayEvent;
+import org.bukkit.event.block.SignChangeEvent;
+import org.bukkit.event.entity.EntityChangeBlockEvent;
+import org.bukkit.event.entity.EntityExplodeEvent;
+import org.bukkit.event.world.ChunkUnloadEvent;
+import org.bukkit.event.world.WorldUnloadEvent;
+
+import com.wolvereness.util.LongObjectMap;
+
+/**
+ * Keeps the parsed shops of loaded chunks, keyed by chunk and packed block
+ * coordinate, so repeated lookups do not snapshot or re-parse the sign.<br>
+ * Entries are dropped by the monitored block events whenever a sign, the
+ * block it hangs on, or the container beneath it may have changed.<br>
+ * The blocks that known shop signs hang on are counted per world, so a
+ * physics update can be checked against shops without reading the world.
+ * The shops protecting each chest that has been checked are remembered
+ * the same way, until a block next to or above the chests changes.
+ * Licensed under GNU GPL v3
+ * @author Wolfe
+ */
+public class ShopRegistry implements Listener {
+	private static class Entry {
+		private final Material below;
+		private final Shop shop;
+		private final long support;
+
+		Entry(final Shop shop, final Material below) {
+			this.shop = shop;
+			this.below = below;
+			this.support = shop == null ? 0 : ShopKey.pack(shop.getAttachedBlock());
+		}
+	}
+
+	private static class ShopChunk {
+		private final LongObjectMap<Entry> entries = new LongObjectMap<Entry>();
+		/**
+		 * The shops protecting each chest, keyed by local block coordinate
+		 */
+		private final LongObjectMap<Shop[]> protectors = new LongObjectMap<Shop[]>();
+		private Object scan;
+		private boolean scanned = false;
+		/**
+		 * Signs found by the search, plus those placed or written since. A sign may be counted
+		 * twice, as placing a sign also writes it, so this never falls below the real number.
+		 */
+		private int signs = 0;
+	}
+
+	private static class ShopWorld {
+		private final LongObjectMap<ShopChunk> chunks = new LongObjectMap<ShopChunk>();
+		/**
+		 * Number of shop signs attached to each block, keyed by packed block coordinate
+		 */
+		private final LongObjectMap<Support> supports = new LongObjectMap<Support>();
+	}
+
+	private static class Support {
+		private int shops = 0;
+	}
+
+	private static final Shop[] NO_SHOPS = new Shop[0];
+
+	static long chunkKey(final int chunkX, final int chunkZ) {
+		return ((long) chunkX << 32) | (chunkZ & 0xFFFFFFFFL);
+	}
+
+	private static void invalidateProtectors(final ShopWorld world, final int x, final int y, final int z) {
+		final ShopChunk chunk = world.chunks.get(chunkKey(x >> 4, z >> 4));
+		if (chunk == null || chunk.protectors.isEmpty()) return;
+		chunk.protectors.remove(localKey(x, y, z));
+	}
+
+	private static boolean isSign(final Block block) {
+		return block.getType() == SIGN_POST || block.getType() == WALL_SIGN;
+	}
+
+	private static long localKey(final Block block) {
+		return localKey(block.getX(), block.getY(), block.getZ());
+	}
+
+	private static long localKey(final int x, final int y, final int z) {
+		return (y << 8) | ((z & 0xF) << 4) | (x & 0xF);
+	}
+
+	private static void release(final ShopWorld world, final Entry entry) {
+		if (entry == null || entry.shop == null) return;
+		final Support support = world.supports.get(entry.support);
+		if (support != null && --support.shops == 0) {
+			world.supports.remove(entry.support);
+		}
+	}
+
+	private static void release(final ShopWorld world, final ShopChunk chunk) {
+		if (chunk == null) return;
+		for (final Entry entry : chunk.entries.values()) {
+			release(world, entry);
+		}
+	}
+
+	private final List<Block> pending = new ArrayList<Block>();
+	private final PhysicalShop plugin;
+	private final Runnable verifyPending = new Runnable() {
+		public void run() {
+			verifyPending();
+		}};
+	private final Map<World, ShopWorld> worlds = new HashMap<World, ShopWorld>();
+
+	/**
+	 * @param plugin The active PhysicalShop plugin
+	 */
+	public ShopRegistry(final PhysicalShop plugin) {
+		this.plugin = plugin;
+	}
+
+	/**
+	 * Marks the start of a search of a chunk, discarding anything known about it
+	 * @param chunk the chunk being searched
+	 * @return a token to identify this search when it finishes
+	 */
+	public Object beginScan(final Chunk chunk) {
+		final ShopChunk shopChunk = new ShopChunk();
+		final ShopWorld world = getWorld(chunk.getWorld(), true);
+		release(world, world.chunks.put(chunkKey(chunk.getX(), chunk.getZ()), shopChunk));
+		return shopChunk.scan = new Object();
+	}
+
+	/**
+	 * Forgets every known shop. Used when the configuration changes how signs are read.
+	 */
+	public void clear() {
+		for (final ShopWorld world : worlds.values()) {
+			for (final ShopChunk chunk : world.chunks.values()) {
+				chunk.entries.clear();
+				chunk.protectors.clear();
+			}
+			world.supports.clear();
+		}
+	}
+
+	/**
+	 * Records the number of signs found by a search of a chunk.
+	 * Signs placed since the search began are kept.
+	 * @param world the world of the chunk
+	 * @param chunkX x coordinate of the chunk
+	 * @param chunkZ z coordinate of the chunk
+	 * @param scan the token from {@link #beginScan(Chunk)}
+	 * @param signs the number of signs found
+	 */
+	public void finishScan(final World world, final int chunkX, final int chunkZ, final Object scan, final int signs) {
+		final ShopChunk chunk = getChunk(world, chunkX, chunkZ, false);
+		if (chunk == null || chunk.scan != scan) return; // Unloaded or searched again since
+		chunk.scan = null;
+		chunk.scanned = true;
+		chunk.signs += signs;
+	}
+
+	private void forget(final Block block) {
+		final ShopWorld world = getWorld(block.getWorld(), false);
+		final ShopChunk chunk = getChunk(world, block.getX() >> 4, block.getZ() >> 4, false);
+		if (chunk != null) {
+			release(world, chunk.entries.remove(localKey(block)));
+		}
+		if (!plugin.getShopIndex().contains(block)) return;
+		if (pending.isEmpty()) {
+			plugin.getServer().getScheduler().scheduleSyncDelayedTask(plugin, verifyPending);
+		}
+		pending.add(block);
+	}
+
+	/**
+	 * Finds the shops that protect a chest; those with a sign over the chest, or over a chest next to it.
+	 * The answer is remembered until one of those blocks changes.
+	 * @param chest the chest block to consider
+	 * @return the shops protecting said chest, possibly empty
+	 */
+	public Shop[] getChestProtectors(final Block chest) {
+		final ShopChunk chunk = getChunk(chest, true);
+		final long key = localKey(chest);
+		Shop[] protectors = chunk.protectors.get(key);
+		if (protectors == null) {
+			final List<Shop> shops = new ArrayList<Shop>(1);
+			for (final BlockFace face : ShopHelpers.CARDINAL_DIRECTIONS) {
+				final Block block = chest.getRelative(face);
+				if (block.getType() != CHEST) {
+					continue;
+				}
+				final Shop shop = ShopHelpers.getShop(block.getRelative(UP), plugin);
+				if (shop != null) {
+					shops.add(shop);
+				}
+			}
+			protectors = shops.isEmpty() ? NO_SHOPS : shops.toArray(new Shop[shops.size()]);
+			chunk.protectors.put(key, protectors);
+		}
+		return protectors;
+	}
+
+	private ShopChunk getChunk(final Block block, final boolean create) {
+		return getChunk(block.getWorld(), block.getX() >> 4, block.getZ() >> 4, create);
+	}
+
+	private ShopChunk getChunk(final World world, final int chunkX, final int chunkZ, final boolean create) {
+		return getChunk(getWorld(world, create), chunkX, chunkZ, create);
+	}
+
+	private ShopChunk getChunk(final ShopWorld world, final int chunkX, final int chunkZ, final boolean create) {
+		if (world == null) return null;
+		final long key = chunkKey(chunkX, chunkZ);
+		ShopChunk chunk = world.chunks.get(key);
+		if (chunk == null && create) {
+			world.chunks.put(key, chunk = new ShopChunk());
+		}
+		return chunk;
+	}
+
+	/**
+	 * Looks up the shop for a sign block, parsing the sign only if it is not yet known.
+	 * The caller is expected to have checked that the block is a sign.
+	 * @param block the sign block to consider
+	 * @return the shop for said sign, or null if the sign is not a valid shop
+	 */
+	public Shop getShop(final Block block) {
+		final ShopWorld world = getWorld(block.getWorld(), true);
+		final ShopChunk chunk = getChunk(world, block.getX() >> 4, block.getZ() >> 4, true);
+		final long key = localKey(block);
+		final Material below = block.getRelative(DOWN).getType();
+		Entry entry = chunk.entries.get(key);
+		if (entry == null || entry.below != below) {
+			entry = new Entry(ShopHelpers.parseShop(block, plugin), below);
+			release(world, chunk.entries.put(key, entry));
+			if (entry.shop != null) {
+				Support support = world.supports.get(entry.support);
+				if (support == null) {
+					world.supports.put(entry.support, support = new Support());
+				}
+				support.shops++;
+			}
+			plugin.getShopIndex().update(block, entry.shop);
+			if (entry.shop != null && chunk.signs == 0) {
+				// A shop sign that no event or search counted, such as one pasted in
+				chunk.signs = 1;
+			}
+		}
+		return entry.shop;
+	}
+
+	private ShopWorld getWorld(final World world, final boolean create) {
+		ShopWorld shopWorld = worlds.get(world);
+		if (shopWorld == null && create) {
+			worlds.put(world, shopWorld = new ShopWorld());
+		}
+		return shopWorld;
+	}
+
+	private boolean hasSigns(final World world, final int chunkX, final int chunkZ) {
+		final ShopChunk chunk = getChunk(world, chunkX, chunkZ, false);
+		return chunk == null || !chunk.scanned || chunk.signs != 0;
+	}
+
+	/**
+	 * Forgets the shop, if any, at the specified block.
+	 * If the index remembers a shop there, it is checked again next tick.
+	 * @param block the block to forget
+	 */
+	public void invalidate(final Block block) {
+		forget(block);
+		invalidateProtectors(block);
+	}
+
+	/**
+	 * Forgets the shops that may depend on the specified block; the block itself,
+	 * signs attached to it, and the sign above it. Also forgets the protection of chests
+	 * that may depend on it.
+	 * @param block the block that is changing
+	 */
+	public void invalidateAround(final Block block) {
+		for (final BlockFace face : ShopHelpers.EXTENDED_DIRECTIONS) {
+			forget(block.getRelative(face));
+		}
+		invalidateProtectors(block);
+	}
+
+	private void invalidateAround(final Collection<Block> blocks) {
+		for (final Block block : blocks) {
+			invalidateAround(block);
+		}
+	}
+
+	/**
+	 * Forgets the protection of the chests that could depend on a block; the chests at,
+	 * next to, below, or diagonally below said block.
+	 */
+	private void invalidateProtectors(final Block block) {
+		final ShopWorld world = worlds.get(block.getWorld());
+		if (world == null) return;
+		final int x = block.getX(), z = block.getZ();
+		for (int y = block.getY() - 1; y <= block.getY(); y++) {
+			invalidateProtectors(world, x, y, z);
+			invalidateProtectors(world, x + 1, y, z);
+			invalidateProtectors(world, x - 1, y, z);
+			invalidateProtectors(world, x, y, z + 1);
+			invalidateProtectors(world, x, y, z - 1);
+		}
+	}
+
+	/**
+	 * Checks if the specified block is a known shop sign, or the block a known shop sign is attached to.
+	 * This neither reads the world nor allocates, so it is cheap enough for every physics update.
+	 * @param block the block to check
+	 * @return true if a known shop depends on said block
+	 */
+	public boolean isGuarded(final Block block) {
+		final ShopWorld world = worlds.get(block.getWorld());
+		if (world == null) return false;
+		if (world.supports.containsKey(ShopKey.pack(block))) return true;
+		final ShopChunk chunk = world.chunks.get(chunkKey(block.getX() >> 4, block.getZ() >> 4));
+		if (chunk == null) return false;
+		final Entry entry = chunk.entries.get(localKey(block));
+		return entry != null && entry.shop != null;
+	}
+
+	/**
+	 * Checks if any shop could depend on the specified block, meaning there may be a sign
+	 * next to it. Chunks that have not finished being searched are assumed to have signs.
+	 * @param block the block to check around
+	 * @return false if there are definitely no shops around said block
+	 */
+	public boolean isShopNear(final Block block) {
+		final int chunkX = block.getX() >> 4, chunkZ = block.getZ() >> 4;
+		final int x = block.getX() & 0xF, z = block.getZ() & 0xF;
+		return	hasSigns(block.getWorld(), chunkX, chunkZ)
+				|| (x == 0x0 && hasSigns(block.getWorld(), chunkX - 1, chunkZ))
+				|| (x == 0xF && hasSigns(block.getWorld(), chunkX + 1, chunkZ))
+				|| (z == 0x0 && hasSigns(block.getWorld(), chunkX, chunkZ - 1))
+				|| (z == 0xF && hasSigns(block.getWorld(), chunkX, chunkZ + 1));
+	}
+
+	@SuppressWarnings("javadoc")
+	@EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+	public void onBlockBreak(final BlockBreakEvent e) {
+		removeSign(e.getBlock());
+		invalidateAround(e.getBlock());
+	}
+
+	@SuppressWarnings("javadoc")
+	@EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+	public void onBlockBurn(final BlockBurnEvent e) {
+		invalidateAround(e.getBlock());
+	}
+
+	@SuppressWarnings("javadoc")
+	@EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+	public void onBlockFade(final BlockFadeEvent e) {
+		invalidateAround(e.getBlock());
+	}
+
+	@SuppressWarnings("javadoc")
+	@EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+	public void onBlockPistonExtend(final BlockPistonExtendEvent e) {
+		for (final Block block : e.getBlocks()) {
+			invalidateAround(block);
+			invalidateAround(block.getRelative(e.getDirection()));
+		}
+	}
+
+	@SuppressWarnings("javadoc")
+	@EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+	public void onBlockPistonRetract(final BlockPistonRetractEvent e) {
+		invalidateAround(e.getBlock().getRelative(e.getDirection()));
+		invalidateAround(e.getBlock().getRelative(e.getDirection(), 2));
+	}
+
+	@SuppressWarnings("javadoc")
+	@EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+	public void onBlockPlace(final BlockPlaceEvent e) {
+		if (isSign(e.getBlock())) {
+			getChunk(e.getBlock(), true).signs++;
+		}
+		invalidateAround(e.getBlock());
+	}
+
+	@SuppressWarnings("javadoc")
+	@EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+	public void onChunkUnload(final ChunkUnloadEvent e) {
+		unload(e.getChunk());
+	}
+
+	@SuppressWarnings("javadoc")
+	@EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+	public void onEntityChangeBlock(final EntityChangeBlockEvent e) {
+		invalidateAround(e.getBlock());
+	}
+
+	@SuppressWarnings("javadoc")
+	@EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+	public void onEntityExplode(final EntityExplodeEvent e) {
+		for (final Block block : e.blockList()) {
+			removeSign(block);
+		}
+		invalidateAround(e.blockList());
+	}
+
+	@SuppressWarnings("javadoc")
+	@EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+	public void onLeavesDecay(final LeavesDecayEvent e) {
+		invalidateAround(e.getBlock());
+	}
+
+	@SuppressWarnings("javadoc")
+	@EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+	public void onSignChange(final SignChangeEvent e) {
+		// Every shop is written through here, including signs that other plugins put in place
+		getChunk(e.getBlock(), true).signs++;
+		invalidate(e.getBlock());
+	}
+
+	@SuppressWarnings("javadoc")
+	@EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+	public void onWorldUnload(final WorldUnloadEvent e) {
+		worlds.remove(e.getWorld());
+	}
+
+	private void removeSign(final Block block) {
+		if (!isSign(block)) return;
+		final ShopChunk chunk = getChunk(block, false);
+		if (chunk != null && chunk.signs > 0) {
+			chunk.signs--;
+		}
+	}
+
+	private void unload(final Chunk chunk) {
+		final ShopWorld world = worlds.get(chunk.getWorld());
+		if (world == null) return;
+		release(world, world.chunks.remove(chunkKey(chunk.getX(), chunk.getZ())));
+	}
+
+	private void verifyPending() {
+		final Block[] blocks = pending.toArray(new Block[pending.size()]);
+		pending.clear();
+		for (final Block block : blocks) {
+			if (!block.getWorld().isChunkLoaded(block.getX() >> 4, block.getZ() >> 4)) {
+				continue;
+			}
+			if (isSign(block)) {
+				getShop(block);
+			} else {
+				plugin.getShopIndex().remove(block);
+			}
+		}
+	}
+}
@@ -0,0 +1,126 @@
+package com.wolvereness.physicalshop;
+
+import com.wolvereness.util.LruCache;
+
+/**
+ * Remembers what the text of recently read shop signs parsed to, so signs
+ * with the same material and rate lines share one parse.<br>
+ * A new cache is made whenever the configuration is loaded, as the result
+ * depends on the material names and rate patterns.
+ * Licensed under GNU GPL v3
+ * @author Wolfe
+ */
+public class SignTextCache {
+	private static final class Key {
+		private static boolean equals(final String a, final String b) {
+			return a == null ? b == null : a.equals(b);
+		}
+
+		private static int hashCode(final String string) {
+			return string == null ? 0 : string.hashCode();
+		}
+
+		private final String buy;
+		private final int hash;
+		private final String material;
+		private final String sell;
+
+		Key(final String[] lines) {
+			material = lines[0];
+			buy = lines[1];
+			sell = lines[2];
+			hash = ((hashCode(material) * 31) + hashCode(buy)) * 31 + hashCode(sell);
+		}
+
+		@Override
+		public boolean equals(final Object o) {
+			if (o == this) return true;
+			if (!(o instanceof Key)) return false;
+			final Key that = (Key) o;
+			return hash == that.hash
+				&& equals(material, that.material)
+				&& equals(buy, that.buy)
+				&& equals(sell, that.sell);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+	}
+
+	/**
+	 * The material and rates read from the first three lines of a shop sign
+	 */
+	public static final class Parsed {
+		private final Rate buyRate;
+		private final ShopMaterial material;
+		private final Rate sellRate;
+
+		Parsed(final ShopMaterial material, final Rate buyRate, final Rate sellRate) {
+			this.material = material;
+			this.buyRate = buyRate;
+			this.sellRate = sellRate;
+		}
+
+		/**
+		 * @return the rate for buying, or null if the shop does not sell
+		 */
+		public Rate getBuyRate() {
+			return buyRate;
+		}
+
+		/**
+		 * @return the material the shop trades
+		 */
+		public ShopMaterial getMaterial() {
+			return material;
+		}
+
+		/**
+		 * @return the rate for selling, or null if the shop does not buy
+		 */
+		public Rate getSellRate() {
+			return sellRate;
+		}
+	}
+
+	private static final int CAPACITY = 4096;
+	/**
+	 * Stands in for text that is not a valid shop, so it is not parsed again either
+	 */
+	private static final Parsed INVALID = new Parsed(null, null, null);
+
+	private final LruCache<Key, Parsed> cache = new LruCache<Key, Parsed>(CAPACITY);
+	private final PhysicalShop plugin;
+
+	/**
+	 * @param plugin The active PhysicalShop plugin, with its configuration loaded
+	 */
+	public SignTextCache(final PhysicalShop plugin) {
+		this.plugin = plugin;
+	}
+
+	/**
+	 * Reads the material and rates from the text of a sign. The owner line is not considered.
+	 * @param lines the text from the sign
+	 * @return the material and rates, or null if the text is not a valid shop
+	 */
+	public Parsed parse(final String[] lines) {
+		final Key key = new Key(lines);
+		Parsed parsed = cache.get(key);
+		if (parsed == null) {
+			cache.put(key, parsed = read(lines));
+		}
+		return parsed == INVALID ? null : parsed;
+	}
+
+	private Parsed read(final String[] lines) {
+		final ShopMaterial material = Shop.getMaterial(lines, plugin.getMaterialConfig());
+		if (material == null) return INVALID;
+		final Rate buyRate = plugin.getPluginConfig().getBuyPatternHandler().getRate(lines[1], plugin);
+		final Rate sellRate = plugin.getPluginConfig().getSellPatternHandler().getRate(lines[2], plugin);
+		if (buyRate == null && sellRate == null) return INVALID;
+		return new Parsed(material, buyRate, sellRate);
+	}
+}
@@ -0,0 +1,168 @@
+package com.wolvereness.physicalshop;
+
+import static java.util.logging.Level.WARNING;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+
+import org.apache.commons.lang.ClassUtils;
+import org.bukkit.Bukkit;
+import org.bukkit.Material;
+import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.ItemStack;
+
+/**
+ * Reads the stacks in the slots of an inventory, for counting.<br>
+ * On CraftBukkit, the server's own slot array is read in place, so neither the
+ * contents nor any stack in them is copied. On other servers, or if the server's
+ * classes are not laid out as expected, the contents are copied as usual. If reading
+ * in place fails while the server runs, the reader copies from then on.
+ * Licensed under GNU GPL v3
+ * @author Wolfe
+ */
+public abstract class SlotReader {
+	/**
+	 * Receives the stacks of an inventory that have no item meta
+	 */
+	public interface Visitor {
+		/**
+		 * @param type the type of the stack
+		 * @param durability the durability of the stack
+		 * @param amount the size of the stack
+		 */
+		void visit(Material type, short durability, int amount);
+	}
+
+	private static class Copying extends SlotReader {
+		@Override
+		public void read(final Inventory inventory, final Visitor visitor) {
+			read(inventory, visitor, 0);
+		}
+
+		void read(final Inventory inventory, final Visitor visitor, final int from) {
+			final ItemStack[] contents = inventory.getContents();
+			for (int i = from; i < contents.length; i++) {
+				final ItemStack stack = contents[i];
+				if (stack == null || stack.hasItemMeta()) {
+					continue;
+				}
+				visitor.visit(stack.getType(), stack.getDurability(), stack.getAmount());
+			}
+		}
+	}
+
+	private static class InPlace extends SlotReader {
+		private final Method asCraftMirror;
+		private volatile boolean broken = false;
+		private final Field count;
+		private final Class<?> craftInventory;
+		private final Field damage;
+		private final Method getContents;
+		private final Method getInventory;
+		private final Field id;
+		private final Field tag;
+
+		InPlace(final String craftBukkitPath, final String nmsPath) throws Exception {
+			final Class<?> itemStack = Class.forName(nmsPath.concat(".ItemStack"));
+
+			craftInventory = Class.forName(craftBukkitPath.concat(".inventory.CraftInventory"));
+			getInventory   = craftInventory.getMethod("getInventory");
+			getContents    = Class.forName(nmsPath.concat(".IInventory")).getMethod("getContents");
+			asCraftMirror  = Class.forName(craftBukkitPath.concat(".inventory.CraftItemStack")).getMethod("asCraftMirror", itemStack);
+
+			id     = itemStack.getField("id");
+			count  = itemStack.getField("count");
+			tag    = itemStack.getField("tag");
+			damage = itemStack.getDeclaredField("damage");
+			damage.setAccessible(true);
+
+			if (	getContents.getReturnType() != Array.newInstance(itemStack, 0).getClass()
+					|| id.getType() != int.class
+					|| count.getType() != int.class
+					|| damage.getType() != int.class
+					) throw new NoSuchFieldException("Unexpected layout of " + itemStack.getName());
+		}
+
+		private void fail(final Throwable cause) {
+			if (broken) return;
+			broken = true;
+			Bukkit.getLogger().log(WARNING, "[PhysicalShop] Could not read inventory slots in place, copying them instead", cause);
+		}
+
+		@Override
+		public void read(final Inventory inventory, final Visitor visitor) {
+			if (broken || !craftInventory.isInstance(inventory)) {
+				COPYING.read(inventory, visitor);
+				return;
+			}
+			final Object[] slots;
+			try {
+				slots = (Object[]) getContents.invoke(getInventory.invoke(inventory, (Object[]) null), (Object[]) null);
+			} catch (final Exception ex) {
+				fail(ex);
+				COPYING.read(inventory, visitor);
+				return;
+			}
+			for (int i = 0; i < slots.length; i++) {
+				final Object slot = slots[i];
+				if (slot == null) {
+					continue;
+				}
+				final Material type;
+				final int durability, amount;
+				try {
+					// Only stacks with a tag can have meta, and those are rare enough to mirror
+					if (tag.get(slot) != null && ((ItemStack) asCraftMirror.invoke(null, slot)).hasItemMeta()) {
+						continue;
+					}
+					type = Material.getMaterial(id.getInt(slot));
+					durability = damage.getInt(slot);
+					amount = count.getInt(slot);
+				} catch (final Exception ex) {
+					// The slots before this one were already visited
+					fail(ex);
+					COPYING.read(inventory, visitor, i);
+					return;
+				}
+				if (type != null) {
+					visitor.visit(type, (short) durability, amount);
+				}
+			}
+		}
+	}
+
+	private static final Copying COPYING = new Copying();
+	private static final SlotReader INSTANCE = create();
+
+	private static SlotReader create() {
+		final String craftBukkit = "org.bukkit.craftbukkit.";
+		final String nms = "net.minecraft.server.";
+		if (Bukkit.getServer() == null) return COPYING;
+		final String classPackage = ClassUtils.getPackageName(Bukkit.getServer().getClass());
+		if (!classPackage.startsWith(craftBukkit)) return COPYING;
+
+		final String version = classPackage.substring(craftBukkit.length());
+		try {
+			return new InPlace(craftBukkit.concat(version), nms.concat(version));
+		} catch (final Exception ex) {
+			return COPYING;
+		} catch (final LinkageError er) {
+			return COPYING;
+		}
+	}
+
+	/**
+	 * @return the reader suited to the running server
+	 */
+	public static SlotReader getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Passes each stack in an inventory without item meta to a visitor, in slot order
+	 * @param inventory the inventory to read
+	 * @param visitor the visitor to pass the stacks to
+	 */
+	public abstract void read(Inventory inventory, Visitor visitor);
+}
@@ -0,0 +1,108 @@
+package com.wolvereness.physicalshop;
+
+import static java.util.logging.Level.SEVERE;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * A file in the data folder that each save replaces as a whole.<br>
+ * The contents are made on the main thread, then written to a temporary file
+ * and renamed over the old one, on or off of the main thread. Saves are numbered,
+ * so one that finishes late never replaces a newer one, and a save that fails
+ * marks the file as changed again so the next save retries it.
+ * Licensed under GNU GPL v3
+ * @author Wolfe
+ */
+public class SnapshotFile {
+	private final String description;
+	/**
+	 * Set again from the writing thread if a write fails
+	 */
+	private volatile boolean dirty = false;
+	private long generation = 0;
+	private final String name;
+	private final PhysicalShop plugin;
+	private final Object writeLock = new Object();
+	private long writtenGeneration = 0;
+
+	/**
+	 * @param plugin The active PhysicalShop plugin
+	 * @param name the name of the file in the data folder
+	 * @param description what the file holds, for log messages
+	 */
+	public SnapshotFile(final PhysicalShop plugin, final String name, final String description) {
+		this.plugin = plugin;
+		this.name = name;
+		this.description = description;
+	}
+
+	/**
+	 * @return the file in the data folder
+	 */
+	public File getFile() {
+		return new File(plugin.getDataFolder(), name);
+	}
+
+	/**
+	 * @return true if the contents changed since they were last saved
+	 */
+	public boolean isDirty() {
+		return dirty;
+	}
+
+	/**
+	 * Replaces the file with new contents
+	 * @param body the new contents of the file
+	 * @param async true to write the file off of the main thread
+	 */
+	public void save(final byte[] body, final boolean async) {
+		dirty = false;
+		final long generation = ++this.generation;
+		final Runnable task = new Runnable() {
+			public void run() {
+				write(body, generation);
+			}};
+		if (async) {
+			plugin.getServer().getScheduler().runTaskAsynchronously(plugin, task);
+		} else {
+			task.run();
+		}
+	}
+
+	/**
+	 * @param dirty true if the contents changed since they were last saved
+	 */
+	public void setDirty(final boolean dirty) {
+		this.dirty = dirty;
+	}
+
+	private void write(final byte[] body, final long generation) {
+		synchronized (writeLock) {
+			if (generation <= writtenGeneration) return; // Newer contents were already written
+			final File file = getFile();
+			final File temp = new File(file.getPath() + ".tmp");
+			OutputStream out = null;
+			try {
+				plugin.getDataFolder().mkdirs();
+				out = new FileOutputStream(temp);
+				out.write(body);
+				out.close();
+				out = null;
+				if (!temp.renameTo(file) && !(file.delete() && temp.renameTo(file))) throw new IOException("Could not replace " + file);
+				writtenGeneration = generation;
+			} catch (final IOException ex) {
+				plugin.getLogger().log(SEVERE, "Failed to write " + description + " " + file + ", it will be written again on the next save", ex);
+				dirty = true;
+			} finally {
+				if (out != null) {
+					try {
+						out.close();
+					} catch (final IOException e) {}
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,283 @@
+package com.wolvereness.physicalshop;
+
+import static org.bukkit.Material.CHEST;
+import static org.bukkit.block.BlockFace.SELF;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.bukkit.Chunk;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockFace;
+import org.bukkit.block.BlockState;
+import org.bukkit.block.DoubleChest;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.block.BlockBreakEvent;
+import org.bukkit.event.block.BlockDispenseEvent;
+import org.bukkit.event.block.BlockPlaceEvent;
+import org.bukkit.event.entity.EntityExplodeEvent;
+import org.bukkit.event.inventory.BrewEvent;
+import org.bukkit.event.inventory.FurnaceBurnEvent;
+import org.bukkit.event.inventory.FurnaceSmeltEvent;
+import org.bukkit.event.inventory.InventoryClickEvent;
+import org.bukkit.event.inventory.InventoryCloseEvent;
+import org.bukkit.event.world.ChunkUnloadEvent;
+import org.bukkit.event.world.WorldUnloadEvent;
+import org.bukkit.inventory.InventoryHolder;
+
+import com.wolvereness.util.LongObjectMap;
+
+/**
+ * Keeps how much of each material is in the inventories of shop containers,
+ * so stock and capital can be checked without scanning the inventory.<br>
+ * A container is scanned the first time it is asked about. After that, trades
+ * adjust the counts, and the counts are dropped whenever anything else may have
+ * changed the inventory, like a player moving items or the container being broken.
+ * Licensed under GNU GPL v3
+ * @author Wolfe
+ */
+public class StockCache implements Listener {
+	private static class Histogram {
+		/**
+		 * Amounts, keyed by {@link StockCache#materialKey(Material, short)}
+		 */
+		private final LongObjectMap<int[]> counts = new LongObjectMap<int[]>();
+	}
+
+	private static int countOf(final Histogram histogram, final ShopMaterial material) {
+		final int[] count = histogram.counts.get(materialKey(material.getMaterial(), material.getDurability()));
+		return count == null ? 0 : count[0];
+	}
+
+	/**
+	 * Finds the block the counts of a container are kept under. Both halves of a double chest
+	 * share one inventory, so they are kept under whichever half is further west, then north.
+	 * @param holder the container to consider
+	 * @return the block to key the counts by, or null if said container is not a block
+	 */
+	private static Block getBlock(final InventoryHolder holder) {
+		if (holder instanceof DoubleChest) return getBlock(((DoubleChest) holder).getLeftSide());
+		if (!(holder instanceof BlockState)) return null;
+		final Block half = ((BlockState) holder).getBlock();
+		if (half.getType() != CHEST) return half;
+		Block block = half;
+		for (final BlockFace face : ShopHelpers.CARDINAL_DIRECTIONS) {
+			final Block other = half.getRelative(face);
+			if (	face != SELF
+					&& other.getType() == CHEST
+					&& (other.getX() < block.getX() || (other.getX() == block.getX() && other.getZ() < block.getZ()))
+					) {
+				block = other;
+			}
+		}
+		return block;
+	}
+
+	private static long localKey(final Block block) {
+		return (block.getY() << 8) | ((block.getZ() & 0xF) << 4) | (block.getX() & 0xF);
+	}
+
+	private static long materialKey(final Material material, final short durability) {
+		return ((long) material.getId() << 16) | (durability & 0xFFFF);
+	}
+
+	private static Histogram scan(final InventoryHolder holder) {
+		final Histogram histogram = new Histogram();
+		SlotReader.getInstance().read(holder.getInventory(), new SlotReader.Visitor() {
+			public void visit(final Material type, final short durability, final int amount) {
+				final long key = materialKey(type, durability);
+				final int[] count = histogram.counts.get(key);
+				if (count == null) {
+					histogram.counts.put(key, new int[] { amount });
+				} else {
+					count[0] += amount;
+				}
+			}});
+		return histogram;
+	}
+
+	private final Map<World, LongObjectMap<LongObjectMap<Histogram>>> worlds = new HashMap<World, LongObjectMap<LongObjectMap<Histogram>>>();
+
+	/**
+	 * Changes the remembered count of a material, after a trade moved it
+	 * @param holder the container that was traded with
+	 * @param material the material moved
+	 * @param delta the amount added, or negative for the amount removed
+	 */
+	public void adjust(final InventoryHolder holder, final ShopMaterial material, final int delta) {
+		final Block block = getBlock(holder);
+		if (block == null || material == null) return;
+		final LongObjectMap<Histogram> chunk = getChunk(block.getWorld(), block.getX() >> 4, block.getZ() >> 4, false);
+		if (chunk == null) return;
+		final Histogram histogram = chunk.get(localKey(block));
+		if (histogram == null) return;
+		final long key = materialKey(material.getMaterial(), material.getDurability());
+		final int[] count = histogram.counts.get(key);
+		if (count == null) {
+			histogram.counts.put(key, new int[] { delta });
+		} else {
+			count[0] += delta;
+		}
+	}
+
+	private LongObjectMap<Histogram> getChunk(final World world, final int chunkX, final int chunkZ, final boolean create) {
+		LongObjectMap<LongObjectMap<Histogram>> chunks = worlds.get(world);
+		if (chunks == null) {
+			if (!create) return null;
+			worlds.put(world, chunks = new LongObjectMap<LongObjectMap<Histogram>>());
+		}
+		final long key = ShopRegistry.chunkKey(chunkX, chunkZ);
+		LongObjectMap<Histogram> chunk = chunks.get(key);
+		if (chunk == null && create) {
+			chunks.put(key, chunk = new LongObjectMap<Histogram>());
+		}
+		return chunk;
+	}
+
+	/**
+	 * Finds how much of a material a container holds, scanning it only if it is not yet known
+	 * @param holder the container to consider
+	 * @param material the material to consider
+	 * @return the amount of said material in said container
+	 */
+	public int getCount(final InventoryHolder holder, final ShopMaterial material) {
+		final Histogram histogram = getHistogram(holder);
+		if (histogram == null) return InventoryHelpers.getCount(holder.getInventory(), material);
+		return countOf(histogram, material);
+	}
+
+	/**
+	 * Finds how much of each material a container holds, scanning it at most once
+	 * @param holder the container to consider
+	 * @param materials the materials to consider, any of which can be null
+	 * @return the amount of each material in said container, in the same order; 0 for null materials
+	 */
+	public int[] getCounts(final InventoryHolder holder, final ShopMaterial... materials) {
+		final Histogram histogram = getHistogram(holder);
+		if (histogram == null) return InventoryHelpers.getCounts(holder.getInventory(), materials);
+		final int[] counts = new int[materials.length];
+		for (int i = 0; i < materials.length; i++) {
+			if (materials[i] != null) {
+				counts[i] = countOf(histogram, materials[i]);
+			}
+		}
+		return counts;
+	}
+
+	private Histogram getHistogram(final InventoryHolder holder) {
+		final Block block = getBlock(holder);
+		if (block == null) return null;
+		final LongObjectMap<Histogram> chunk = getChunk(block.getWorld(), block.getX() >> 4, block.getZ() >> 4, true);
+		final long local = localKey(block);
+		Histogram histogram = chunk.get(local);
+		if (histogram == null) {
+			chunk.put(local, histogram = scan(holder));
+		}
+		return histogram;
+	}
+
+	/**
+	 * Forgets the counts for a container, and the containers next to it that may share its inventory
+	 * @param block the container
+	 */
+	public void invalidate(final Block block) {
+		invalidate(block.getWorld(), block.getX(), block.getY(), block.getZ());
+		invalidate(block.getWorld(), block.getX() + 1, block.getY(), block.getZ());
+		invalidate(block.getWorld(), block.getX() - 1, block.getY(), block.getZ());
+		invalidate(block.getWorld(), block.getX(), block.getY(), block.getZ() + 1);
+		invalidate(block.getWorld(), block.getX(), block.getY(), block.getZ() - 1);
+	}
+
+	private void invalidate(final InventoryHolder holder) {
+		if (holder instanceof DoubleChest) {
+			invalidate(((DoubleChest) holder).getLeftSide());
+			invalidate(((DoubleChest) holder).getRightSide());
+			return;
+		}
+		final Block block = getBlock(holder);
+		if (block != null) {
+			invalidate(block);
+		}
+	}
+
+	private void invalidate(final World world, final int x, final int y, final int z) {
+		final LongObjectMap<Histogram> chunk = getChunk(world, x >> 4, z >> 4, false);
+		if (chunk == null) return;
+		chunk.remove((y << 8) | ((z & 0xF) << 4) | (x & 0xF));
+	}
+
+	@SuppressWarnings("javadoc")
+	@EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+	public void onBlockBreak(final BlockBreakEvent e) {
+		invalidate(e.getBlock());
+	}
+
+	@SuppressWarnings("javadoc")
+	@EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+	public void onBlockDispense(final BlockDispenseEvent e) {
+		invalidate(e.getBlock());
+	}
+
+	@SuppressWarnings("javadoc")
+	@EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+	public void onBlockPlace(final BlockPlaceEvent e) {
+		invalidate(e.getBlock());
+	}
+
+	@SuppressWarnings("javadoc")
+	@EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+	public void onBrew(final BrewEvent e) {
+		invalidate(e.getBlock());
+	}
+
+	@SuppressWarnings("javadoc")
+	@EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+	public void onChunkUnload(final ChunkUnloadEvent e) {
+		final Chunk chunk = e.getChunk();
+		final LongObjectMap<LongObjectMap<Histogram>> chunks = worlds.get(chunk.getWorld());
+		if (chunks == null) return;
+		chunks.remove(ShopRegistry.chunkKey(chunk.getX(), chunk.getZ()));
+	}
+
+	@SuppressWarnings("javadoc")
+	@EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+	public void onEntityExplode(final EntityExplodeEvent e) {
+		for (final Block block : e.blockList()) {
+			invalidate(block);
+		}
+	}
+
+	@SuppressWarnings("javadoc")
+	@EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+	public void onFurnaceBurn(final FurnaceBurnEvent e) {
+		invalidate(e.getBlock());
+	}
+
+	@SuppressWarnings("javadoc")
+	@EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+	public void onFurnaceSmelt(final FurnaceSmeltEvent e) {
+		invalidate(e.getBlock());
+	}
+
+	@SuppressWarnings("javadoc")
+	@EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+	public void onInventoryClick(final InventoryClickEvent e) {
+		invalidate(e.getInventory().getHolder());
+	}
+
+	@SuppressWarnings("javadoc")
+	@EventHandler(priority = EventPriority.MONITOR)
+	public void onInventoryClose(final InventoryCloseEvent e) {
+		invalidate(e.getInventory().getHolder());
+	}
+
+	@SuppressWarnings("javadoc")
+	@EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+	public void onWorldUnload(final WorldUnloadEvent e) {
+		worlds.remove(e.getWorld());
+	}
+}
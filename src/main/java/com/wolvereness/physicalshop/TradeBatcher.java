@@ -0,0 +1,122 @@
+package com.wolvereness.physicalshop;
+
+import static java.util.logging.Level.SEVERE;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.bukkit.block.Block;
+import org.bukkit.entity.Player;
+
+/**
+ * Gathers the trades a player asks for at a shop within one tick, and makes them
+ * as a single trade of that many times the rate once the tick is over.<br>
+ * A held right-click or an auto-clicker can ask several times in a tick; this
+ * way each burst costs one exchange, one message and one inventory update.
+ * Licensed under GNU GPL v3
+ * @author Wolfe
+ */
+public class TradeBatcher {
+	private static class Key {
+		private final boolean buying;
+		private final int hash;
+		private final String player;
+		private final ShopKey shop;
+
+		Key(final String player, final ShopKey shop, final boolean buying) {
+			this.player = player;
+			this.shop = shop;
+			this.buying = buying;
+			this.hash = (player.hashCode() * 31 + shop.hashCode()) * 31 + (buying ? 1 : 0);
+		}
+
+		@Override
+		public boolean equals(final Object obj) {
+			if (obj == this) return true;
+			if (!(obj instanceof Key)) return false;
+			final Key other = (Key) obj;
+			return	buying == other.buying
+					&& player.equals(other.player)
+					&& shop.equals(other.shop);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+	}
+
+	private static class Pending {
+		private int count = 0;
+		private final Player player;
+		private final Block sign;
+
+		Pending(final Player player, final Block sign) {
+			this.player = player;
+			this.sign = sign;
+		}
+	}
+
+	private final Map<Key, Pending> pending = new LinkedHashMap<Key, Pending>();
+	private final PhysicalShop plugin;
+	private boolean scheduled = false;
+
+	/**
+	 * @param plugin The active PhysicalShop plugin
+	 */
+	public TradeBatcher(final PhysicalShop plugin) {
+		this.plugin = plugin;
+	}
+
+	/**
+	 * Makes every gathered trade
+	 */
+	public void flush() {
+		scheduled = false;
+		if (pending.isEmpty()) return;
+		final List<Map.Entry<Key, Pending>> batch = new ArrayList<Map.Entry<Key, Pending>>(pending.entrySet());
+		pending.clear();
+		for (final Map.Entry<Key, Pending> entry : batch) {
+			final Pending trade = entry.getValue();
+			if (!trade.player.isOnline()) {
+				continue;
+			}
+			// The sign may have changed since it was clicked
+			final Shop shop = ShopHelpers.getShop(trade.sign, plugin);
+			if (shop == null) {
+				continue;
+			}
+			final boolean buying = entry.getKey().buying;
+			try {
+				final int multiple = trade.count == 1
+					? 1
+					: Math.min(trade.count, buying ? shop.getMaxBuyMultiple(trade.player) : shop.getMaxSellMultiple(trade.player));
+				shop.trade(trade.player, plugin, buying, multiple);
+			} catch (final Throwable t) {
+				plugin.getLogger().log(SEVERE, "A problem has occured, please copy and report this entire stacktrace to the author(s)", t);
+			}
+		}
+	}
+
+	/**
+	 * Adds a trade to the batch of the current tick
+	 * @param player the player trading
+	 * @param shop the shop to trade with
+	 * @param buying true if the player is buying, false if selling
+	 */
+	public void queue(final Player player, final Shop shop, final boolean buying) {
+		final Key key = new Key(player.getName(), shop.getKey(), buying);
+		Pending trade = pending.get(key);
+		if (trade == null) {
+			pending.put(key, trade = new Pending(player, shop.getSign().getBlock()));
+		}
+		trade.count++;
+		if (scheduled) return;
+		scheduled = plugin.getServer().getScheduler().scheduleSyncDelayedTask(plugin, new Runnable() {
+			public void run() {
+				flush();
+			}}) != -1;
+	}
+}
@@ -0,0 +1,61 @@
+package com.wolvereness.physicalshop;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bukkit.inventory.Inventory;
+
+/**
+ * The planned changes to every inventory taking part in a trade.<br>
+ * Each side of the trade is planned first, and the trade is only committed
+ * once every side is known to succeed, so a failed trade changes nothing.
+ * Licensed under GNU GPL v3
+ * @author Wolfe
+ */
+public class Transaction {
+	private final List<Inventory> inventories = new ArrayList<Inventory>(2);
+	private final List<Runnable> onCommit = new ArrayList<Runnable>(1);
+	private final List<ExchangePlan> plans = new ArrayList<ExchangePlan>(2);
+
+	/**
+	 * Adds one side of the trade
+	 * @param inventory the inventory to change
+	 * @param plan the changes to make, planned from said inventory's current contents
+	 * @return this transaction
+	 */
+	public Transaction add(final Inventory inventory, final ExchangePlan plan) {
+		inventories.add(inventory);
+		plans.add(plan);
+		return this;
+	}
+
+	/**
+	 * Applies every planned change. Should something go wrong part way, the changes already made are undone.
+	 */
+	public void commit() {
+		int applying = 0;
+		try {
+			for (; applying < plans.size(); applying++) {
+				plans.get(applying).apply(inventories.get(applying));
+			}
+		} catch (final RuntimeException ex) {
+			for (; applying >= 0; applying--) {
+				plans.get(applying).undo(inventories.get(applying));
+			}
+			throw ex;
+		}
+		for (final Runnable task : onCommit) {
+			task.run();
+		}
+	}
+
+	/**
+	 * Adds a task to run once the trade is committed
+	 * @param task the task to run
+	 * @return this transaction
+	 */
+	public Transaction onCommit(final Runnable task) {
+		onCommit.add(task);
+		return this;
+	}
+}
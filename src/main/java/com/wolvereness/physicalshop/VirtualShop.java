@@ -0,0 +1,94 @@
+package com.wolvereness.physicalshop;
+
+import static com.wolvereness.physicalshop.config.Localized.Message.*;
+
+import org.bukkit.block.Sign;
+import org.bukkit.entity.Player;
+import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.InventoryHolder;
+
+import com.wolvereness.physicalshop.exception.InvalidSignException;
+
+/**
+ * A chest shop that keeps its stock and currency as counters instead of items,
+ * so trades do not depend on the size of its container.<br>
+ * The owner deposits and withdraws through the container, see {@link VirtualStock}.
+ * Licensed under GNU GPL v3
+ * @author Wolfe
+ */
+public class VirtualShop extends ChestShop {
+	private final VirtualStock counters;
+	/**
+	 * Creates a virtual shop over the specified InventoryHolder
+	 * @param sign sign to consider
+	 * @param plugin The active PhysicalShop plugin
+	 * @param inventory The inventory the owner trades stock through
+	 * @throws InvalidSignException thrown if the sign is invalid
+	 */
+	public VirtualShop(final Sign sign, final PhysicalShop plugin, final InventoryHolder inventory) throws InvalidSignException {
+		super(sign, plugin, inventory);
+		this.counters = plugin.getVirtualStock();
+	}
+	@Override
+	public int getShopBuyCapital() {
+		return counters.get(this, getBuyCurrency());
+	}
+	@Override
+	protected int[] getShopCounts() {
+		return new int[] { getShopItems(), getShopBuyCapital(), getShopSellCapital() };
+	}
+	@Override
+	protected Inventory getShopInventory() {
+		return null;
+	}
+	@Override
+	public int getShopItems() {
+		return counters.get(this, getMaterial());
+	}
+	@Override
+	public int getShopSellCapital() {
+		return counters.get(this, getSellCurrency());
+	}
+	@Override
+	protected boolean planBuy(final Player player, final PhysicalShop plugin, final Transaction transaction, final int multiple) {
+		final int price = getBuyRate().getPrice() * multiple;
+		final int amount = getBuyRate().getAmount() * multiple;
+		if (getShopItems() < amount) {
+			plugin.getLocale().sendMessage(
+				player,
+				NOT_ENOUGH_SHOP_ITEMS,
+				getMaterial().toString(plugin.getMaterialConfig())
+				);
+			return false;
+		}
+		if ((long) getShopBuyCapital() + price > Integer.MAX_VALUE) {
+			plugin.getLocale().sendMessage(player, CHEST_INVENTORY_FULL);
+			return false;
+		}
+		transaction.onCommit(new Runnable() {
+			public void run() {
+				counters.adjust(VirtualShop.this, getBuyCurrency(), price);
+				counters.adjust(VirtualShop.this, getMaterial(), -amount);
+			}});
+		return true;
+	}
+	@Override
+	protected boolean planSell(final Player player, final PhysicalShop plugin, final Transaction transaction, final int multiple) {
+		final int price = getSellRate().getPrice() * multiple;
+		final int amount = getSellRate().getAmount() * multiple;
+		if (getShopSellCapital() < price) {
+			plugin.getLocale().sendMessage(player, NOT_ENOUGH_SHOP_MONEY, getSellCurrency().toString(plugin.getMaterialConfig()));
+			return false;
+		}
+		if ((long) getShopItems() + amount > Integer.MAX_VALUE) {
+			plugin.getLocale().sendMessage(player, CHEST_INVENTORY_FULL);
+			return false;
+		}
+		transaction.onCommit(new Runnable() {
+			public void run() {
+				counters.adjust(VirtualShop.this, getMaterial(), amount);
+				counters.adjust(VirtualShop.this, getSellCurrency(), -price);
+			}});
+		return true;
+	}
+}
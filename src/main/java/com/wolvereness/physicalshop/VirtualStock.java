@@ -0,0 +1,491 @@
+package com.wolvereness.physicalshop;
+
+import java.io.File;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockFace;
+import org.bukkit.block.BlockState;
+import org.bukkit.block.DoubleChest;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.event.Cancellable;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.block.BlockBreakEvent;
+import org.bukkit.event.block.BlockBurnEvent;
+import org.bukkit.event.block.BlockFadeEvent;
+import org.bukkit.event.block.BlockPhysicsEvent;
+import org.bukkit.event.block.BlockPistonExtendEvent;
+import org.bukkit.event.block.BlockPistonRetractEvent;
+import org.bukkit.event.block.LeavesDecayEvent;
+import org.bukkit.event.entity.EntityChangeBlockEvent;
+import org.bukkit.event.entity.EntityExplodeEvent;
+import org.bukkit.event.inventory.InventoryCloseEvent;
+import org.bukkit.event.inventory.InventoryOpenEvent;
+import org.bukkit.event.world.ChunkLoadEvent;
+import org.bukkit.event.world.WorldSaveEvent;
+import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.InventoryHolder;
+import org.bukkit.inventory.ItemStack;
+
+import com.wolvereness.physicalshop.events.ShopDestructionEvent;
+import com.wolvereness.physicalshop.exception.InvalidExchangeException;
+import com.wolvereness.util.LongObjectMap;
+
+/**
+ * The stock and currency of virtual shops, kept as counters instead of items.<br>
+ * When the first player opens a virtual shop's container, the counters are moved
+ * into it as far as they fit. When the last player closes it, everything in it of
+ * the shop's materials is moved back into the counters. Counters are written to a
+ * file in the data folder when a world saves and when the plugin is disabled.
+ * The counters of a destroyed shop are only given back once the event destroying
+ * it has gone through, so a later plugin cancelling it cannot duplicate them.
+ * Counters of shops that are no longer virtual are given back into their containers.
+ * Licensed under GNU GPL v3
+ * @author Wolfe
+ */
+public class VirtualStock implements Listener {
+	private static class Account {
+		private final Map<ShopMaterial, int[]> counts = new LinkedHashMap<ShopMaterial, int[]>();
+		private final long position;
+		private final String world;
+
+		Account(final String world, final long position) {
+			this.world = world;
+			this.position = position;
+		}
+
+		private Map<String, Object> toMap() {
+			final Map<String, Object> stock = new LinkedHashMap<String, Object>();
+			for (final Map.Entry<ShopMaterial, int[]> entry : counts.entrySet()) {
+				stock.put(entry.getKey().getMaterial().getId() + ":" + entry.getKey().getDurability(), entry.getValue()[0]);
+			}
+			final Map<String, Object> map = new LinkedHashMap<String, Object>();
+			map.put("world", world);
+			map.put("x", ShopKey.getX(position));
+			map.put("y", ShopKey.getY(position));
+			map.put("z", ShopKey.getZ(position));
+			map.put("stock", stock);
+			return map;
+		}
+	}
+
+	private static final String FILE_NAME = "stock.yml";
+	private static final String SHOPS = "shops";
+
+	private static ShopMaterial toMaterial(final String key) {
+		final int split = key.indexOf(':');
+		if (split == -1) return null;
+		try {
+			final Material material = Material.getMaterial(Integer.parseInt(key.substring(0, split)));
+			final short durability = Short.parseShort(key.substring(split + 1));
+			return material == null ? null : ShopMaterial.valueOf(material, durability);
+		} catch (final NumberFormatException ex) {
+			return null;
+		}
+	}
+
+	/**
+	 * Destroyed shops, by the event destroying them, until said event goes through
+	 */
+	private final Map<Cancellable, List<VirtualShop>> pending = new IdentityHashMap<Cancellable, List<VirtualShop>>();
+	private final PhysicalShop plugin;
+	private final SnapshotFile snapshot;
+	/**
+	 * Accounts to settle when their chunk loads, by world and chunk
+	 */
+	private final Map<String, LongObjectMap<List<Account>>> unsettled = new HashMap<String, LongObjectMap<List<Account>>>();
+	private final Map<ShopKey, int[]> viewers = new HashMap<ShopKey, int[]>();
+	private final Map<String, LongObjectMap<Account>> worlds = new HashMap<String, LongObjectMap<Account>>();
+
+	/**
+	 * @param plugin The active PhysicalShop plugin
+	 */
+	public VirtualStock(final PhysicalShop plugin) {
+		this.plugin = plugin;
+		this.snapshot = new SnapshotFile(plugin, FILE_NAME, "virtual stock");
+	}
+
+	/**
+	 * Changes the count of a material for a shop
+	 * @param shop the shop to change
+	 * @param material the material to change
+	 * @param delta the amount to add, negative to take away
+	 */
+	public void adjust(final Shop shop, final ShopMaterial material, final int delta) {
+		if (delta == 0) return;
+		final Account account = getAccount(shop.getSign().getBlock(), true);
+		int[] count = account.counts.get(material);
+		if (count == null) {
+			account.counts.put(material, count = new int[1]);
+		}
+		count[0] += delta;
+		if (count[0] == 0) {
+			account.counts.remove(material);
+		}
+		snapshot.setDirty(true);
+	}
+
+	/**
+	 * Moves everything in a container of the shop's materials into its counters, as far as the counters can hold
+	 */
+	private void deposit(final VirtualShop shop, final Inventory inventory) {
+		final ShopMaterial[] materials = { shop.getMaterial(), shop.getBuyCurrency(), shop.getSellCurrency() };
+		if (materials[2] != null && (materials[2].equals(materials[0]) || materials[2].equals(materials[1]))) {
+			materials[2] = null;
+		}
+		if (materials[1] != null && materials[1].equals(materials[0])) {
+			materials[1] = null;
+		}
+		final int[] counts = InventoryHelpers.getCounts(inventory, materials);
+		for (int i = 0; i < materials.length; i++) {
+			if (counts[i] == 0) {
+				continue;
+			}
+			final int amount = Math.min(counts[i], Integer.MAX_VALUE - get(shop, materials[i]));
+			try {
+				ExchangePlan.plan(inventory, null, materials[i].getStack(amount)).apply(inventory);
+			} catch (final InvalidExchangeException ex) {
+				continue;
+			}
+			adjust(shop, materials[i], amount);
+		}
+	}
+
+	/**
+	 * Finds how much of a material a shop holds
+	 * @param shop the shop to consider
+	 * @param material the material to consider, can be null
+	 * @return the amount of said material the shop holds; 0 for null materials
+	 */
+	public int get(final Shop shop, final ShopMaterial material) {
+		if (material == null) return 0;
+		final Account account = getAccount(shop.getSign().getBlock(), false);
+		if (account == null) return 0;
+		final int[] count = account.counts.get(material);
+		return count == null ? 0 : count[0];
+	}
+
+	private Account getAccount(final Block sign, final boolean create) {
+		return getAccount(sign.getWorld().getName(), ShopKey.pack(sign), create);
+	}
+
+	private Account getAccount(final String world, final long position, final boolean create) {
+		LongObjectMap<Account> accounts = worlds.get(world);
+		if (accounts == null) {
+			if (!create) return null;
+			worlds.put(world, accounts = new LongObjectMap<Account>());
+		}
+		Account account = accounts.get(position);
+		if (account == null && create) {
+			accounts.put(position, account = new Account(world, position));
+		}
+		return account;
+	}
+
+	private VirtualShop getShop(final InventoryHolder holder) {
+		if (holder instanceof DoubleChest) {
+			final VirtualShop shop = getShop(((DoubleChest) holder).getLeftSide());
+			return shop != null ? shop : getShop(((DoubleChest) holder).getRightSide());
+		}
+		if (!(holder instanceof BlockState)) return null;
+		final Shop shop = ShopHelpers.getShop((BlockState) holder, plugin);
+		return shop instanceof VirtualShop ? (VirtualShop) shop : null;
+	}
+
+	/**
+	 * Reads the counters from disk
+	 */
+	public void load() {
+		worlds.clear();
+		unsettled.clear();
+		snapshot.setDirty(false);
+		final File file = snapshot.getFile();
+		if (!file.exists()) return;
+		final YamlConfiguration config = YamlConfiguration.loadConfiguration(file);
+		for (final Map<?, ?> shop : config.getMapList(SHOPS)) {
+			if (	!(shop.get("world") instanceof String)
+					|| !(shop.get("x") instanceof Number)
+					|| !(shop.get("y") instanceof Number)
+					|| !(shop.get("z") instanceof Number)
+					|| !(shop.get("stock") instanceof Map)
+					) {
+				plugin.getLogger().warning(file + " contains an invalid shop: " + shop);
+				continue;
+			}
+			final Account account = getAccount(
+				(String) shop.get("world"),
+				ShopKey.pack(((Number) shop.get("x")).intValue(), ((Number) shop.get("y")).intValue(), ((Number) shop.get("z")).intValue()),
+				true
+				);
+			for (final Map.Entry<?, ?> entry : ((Map<?, ?>) shop.get("stock")).entrySet()) {
+				final ShopMaterial material = toMaterial(String.valueOf(entry.getKey()));
+				if (material == null || !(entry.getValue() instanceof Number)) {
+					plugin.getLogger().warning(file + " contains an invalid entry: " + entry);
+					continue;
+				}
+				account.counts.put(material, new int[] { ((Number) entry.getValue()).intValue() });
+			}
+		}
+	}
+
+	@SuppressWarnings("javadoc")
+	@EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+	public void onBlockBreak(final BlockBreakEvent e) {
+		payOut(e);
+	}
+
+	@SuppressWarnings("javadoc")
+	@EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+	public void onBlockBurn(final BlockBurnEvent e) {
+		payOut(e);
+	}
+
+	@SuppressWarnings("javadoc")
+	@EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+	public void onBlockFade(final BlockFadeEvent e) {
+		payOut(e);
+	}
+
+	@SuppressWarnings("javadoc")
+	@EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+	public void onBlockPhysics(final BlockPhysicsEvent e) {
+		payOut(e);
+	}
+
+	@SuppressWarnings("javadoc")
+	@EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+	public void onBlockPistonExtend(final BlockPistonExtendEvent e) {
+		payOut(e);
+	}
+
+	@SuppressWarnings("javadoc")
+	@EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+	public void onBlockPistonRetract(final BlockPistonRetractEvent e) {
+		payOut(e);
+	}
+
+	/**
+	 * Settles the accounts of a chunk that was not loaded when the accounts were settled
+	 * @param e Event
+	 */
+	@EventHandler(priority = EventPriority.MONITOR)
+	public void onChunkLoad(final ChunkLoadEvent e) {
+		if (unsettled.isEmpty()) return;
+		final LongObjectMap<List<Account>> chunks = unsettled.get(e.getWorld().getName());
+		if (chunks == null) return;
+		final List<Account> accounts = chunks.remove(ShopRegistry.chunkKey(e.getChunk().getX(), e.getChunk().getZ()));
+		if (chunks.isEmpty()) {
+			unsettled.remove(e.getWorld().getName());
+		}
+		if (accounts == null) return;
+		for (final Account account : accounts) {
+			if (getAccount(account.world, account.position, false) == account) {
+				settle(e.getWorld(), account);
+			}
+		}
+	}
+
+	@SuppressWarnings("javadoc")
+	@EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+	public void onEntityChangeBlock(final EntityChangeBlockEvent e) {
+		payOut(e);
+	}
+
+	@SuppressWarnings("javadoc")
+	@EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+	public void onEntityExplode(final EntityExplodeEvent e) {
+		payOut(e);
+	}
+
+	@SuppressWarnings("javadoc")
+	@EventHandler(priority = EventPriority.MONITOR)
+	public void onInventoryClose(final InventoryCloseEvent e) {
+		final VirtualShop shop = getShop(e.getInventory().getHolder());
+		if (shop == null) return;
+		final ShopKey key = shop.getKey();
+		final int[] count = viewers.get(key);
+		if (count != null && --count[0] > 0) return;
+		viewers.remove(key);
+		deposit(shop, e.getInventory());
+	}
+
+	@SuppressWarnings("javadoc")
+	@EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+	public void onInventoryOpen(final InventoryOpenEvent e) {
+		final VirtualShop shop = getShop(e.getInventory().getHolder());
+		if (shop == null) return;
+		final ShopKey key = shop.getKey();
+		final int[] count = viewers.get(key);
+		if (count != null) {
+			count[0]++;
+			return;
+		}
+		viewers.put(key, new int[] { 1 });
+		withdraw(shop, e.getInventory());
+	}
+
+	@SuppressWarnings("javadoc")
+	@EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+	public void onLeavesDecay(final LeavesDecayEvent e) {
+		payOut(e);
+	}
+
+	/**
+	 * Holds on to destroyed virtual shops until the event destroying them goes through
+	 * @param e Event
+	 */
+	@EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+	public void onShopDestruction(final ShopDestructionEvent e) {
+		List<VirtualShop> shops = null;
+		for (final Shop shop : e.getShops()) {
+			if (!(shop instanceof VirtualShop) || getAccount(shop.getSign().getBlock(), false) == null) {
+				continue;
+			}
+			if (shops == null) {
+				shops = pending.get(e.getCause());
+				if (shops == null) {
+					if (pending.isEmpty()) {
+						plugin.getServer().getScheduler().scheduleSyncDelayedTask(plugin, new Runnable() {
+							public void run() {
+								// Whatever is left was cancelled after the shops were destroyed
+								pending.clear();
+							}});
+					}
+					pending.put(e.getCause(), shops = new ArrayList<VirtualShop>());
+				}
+			}
+			shops.add((VirtualShop) shop);
+		}
+	}
+
+	/**
+	 * Writes the counters if they changed since the last save
+	 * @param e Event
+	 */
+	@EventHandler(priority = EventPriority.MONITOR)
+	public void onWorldSave(final WorldSaveEvent e) {
+		save(true);
+	}
+
+	/**
+	 * Gives back the counters of the shops an event destroyed, now that said event went through
+	 */
+	private void payOut(final Cancellable cause) {
+		if (pending.isEmpty()) return;
+		final List<VirtualShop> shops = pending.remove(cause);
+		if (shops == null) return;
+		for (final VirtualShop shop : shops) {
+			final Block sign = shop.getSign().getBlock();
+			final Account account = getAccount(sign, false);
+			if (account == null) {
+				continue;
+			}
+			payOut(account, shop.getContainer().getInventory(), sign.getRelative(BlockFace.DOWN));
+			viewers.remove(shop.getKey());
+		}
+	}
+
+	/**
+	 * Moves an account's counters into a container as far as they fit, drops the rest, and removes the account
+	 */
+	private void payOut(final Account account, final Inventory inventory, final Block dropAt) {
+		for (final Map.Entry<ShopMaterial, int[]> entry : account.counts.entrySet()) {
+			final int maxStackSize = entry.getKey().getMaterial().getMaxStackSize();
+			for (final ItemStack left : inventory.addItem(entry.getKey().getStack(entry.getValue()[0])).values()) {
+				for (int amount = left.getAmount(); amount > 0; amount -= maxStackSize) {
+					dropAt.getWorld().dropItemNaturally(dropAt.getLocation(), entry.getKey().getStack(Math.min(amount, maxStackSize)));
+				}
+			}
+		}
+		worlds.get(account.world).remove(account.position);
+		snapshot.setDirty(true);
+	}
+
+	/**
+	 * Writes the counters to disk, if they changed
+	 * @param async true to write the file off of the main thread
+	 */
+	public void save(final boolean async) {
+		if (!snapshot.isDirty()) return;
+		final List<Map<String, Object>> shops = new ArrayList<Map<String, Object>>();
+		for (final LongObjectMap<Account> accounts : worlds.values()) {
+			for (final Account account : accounts.values()) {
+				if (!account.counts.isEmpty()) {
+					shops.add(account.toMap());
+				}
+			}
+		}
+		final YamlConfiguration config = new YamlConfiguration();
+		config.set(SHOPS, shops);
+		try {
+			snapshot.save(config.saveToString().getBytes("UTF-8"), async);
+		} catch (final UnsupportedEncodingException ex) {
+			throw new AssertionError(ex);
+		}
+	}
+
+	/**
+	 * Gives back the counters of shops that are no longer virtual, such as after their container type was taken off of the virtual stock types.<br>
+	 * Accounts in chunks that are not loaded are settled when their chunk loads. Accounts without a shop are kept.
+	 */
+	public void settle() {
+		unsettled.clear();
+		for (final LongObjectMap<Account> accounts : worlds.values()) {
+			for (final Account account : accounts.values()) {
+				final int chunkX = ShopKey.getX(account.position) >> 4, chunkZ = ShopKey.getZ(account.position) >> 4;
+				final World world = plugin.getServer().getWorld(account.world);
+				if (world != null && world.isChunkLoaded(chunkX, chunkZ)) {
+					settle(world, account);
+					continue;
+				}
+				LongObjectMap<List<Account>> chunks = unsettled.get(account.world);
+				if (chunks == null) {
+					unsettled.put(account.world, chunks = new LongObjectMap<List<Account>>());
+				}
+				final long key = ShopRegistry.chunkKey(chunkX, chunkZ);
+				List<Account> list = chunks.get(key);
+				if (list == null) {
+					chunks.put(key, list = new ArrayList<Account>(1));
+				}
+				list.add(account);
+			}
+		}
+	}
+
+	private void settle(final World world, final Account account) {
+		final Block sign = world.getBlockAt(ShopKey.getX(account.position), ShopKey.getY(account.position), ShopKey.getZ(account.position));
+		final Shop shop = ShopHelpers.getShop(sign, plugin);
+		if (!(shop instanceof ChestShop) || shop instanceof VirtualShop) return;
+		payOut(account, ((ChestShop) shop).getContainer().getInventory(), sign.getRelative(BlockFace.DOWN));
+		viewers.remove(shop.getKey());
+	}
+
+	/**
+	 * Moves as much of a shop's counters into a container as fits
+	 */
+	private void withdraw(final VirtualShop shop, final Inventory inventory) {
+		final Account account = getAccount(shop.getSign().getBlock(), false);
+		if (account == null) return;
+		for (final Map.Entry<ShopMaterial, int[]> entry : new ArrayList<Map.Entry<ShopMaterial, int[]>>(account.counts.entrySet())) {
+			final int amount = entry.getValue()[0];
+			if (amount <= 0) {
+				continue;
+			}
+			int left = 0;
+			for (final ItemStack stack : inventory.addItem(entry.getKey().getStack(amount)).values()) {
+				left += stack.getAmount();
+			}
+			adjust(shop, entry.getKey(), left - amount);
+		}
+	}
+}
@@ -13,6 +13,14 @@ public class ConfigOptions {
 	 * Config option, "auto-fill-name"
 	 */
 	public static String AUTO_FILL_NAME = "auto-fill-name";
+	/**
+	 * Config option, "batch-trades"
+	 */
+	public static String BATCH_TRADES = "batch-trades";
+	/**
+	 * Config option, "bulk-trade"
+	 */
+	public static String BULK_TRADE = "bulk-trade";
 	/**
 	 * Config option, "buy-pattern"
 	 */
@@ -46,6 +54,10 @@ public class ConfigOptions {
 	 * Config option, "language"
 	 */
 	public static String LANGUAGE = "language";
+	/**
+	 * Config option, "linked-containers"
+	 */
+	public static String LINKED_CONTAINERS = "linked-containers";
 	/**
 	 * Config option, "log-block"
 	 */
@@ -111,4 +123,8 @@ public class ConfigOptions {
 	 * Config option, "update-url"
 	 */
 	public static String UPDATE_URL = "update-url";
+	/**
+	 * Config option, "virtual-stock"
+	 */
+	public static String VIRTUAL_STOCK = "virtual-stock";
 }
@@ -17,21 +17,29 @@ import org.bukkit.configuration.ConfigurationSection;
 import org.bukkit.configuration.file.FileConfiguration;
 import org.bukkit.configuration.file.YamlConfiguration;
 
+import com.wolvereness.physicalshop.MaterialIndex;
 import com.wolvereness.physicalshop.PhysicalShop;
 import com.wolvereness.physicalshop.ShopMaterial;
 import com.wolvereness.physicalshop.exception.InvalidMaterialException;
+import com.wolvereness.util.LruCache;
 
 /**
  * @author Wolfe
  *
  */
 public class MaterialConfig {
+	/**
+	 * The most sign lines to remember the material of
+	 */
+	private static final int CAPACITY = 1024;
 	private static final Pattern spaces = Pattern.compile("\\s+");
 	private final FileConfiguration config;
 	private final HashMap<String, ShopMaterial> currencies = new HashMap<String, ShopMaterial>();
+	private final HashMap<ShopMaterial, String> displayNames = new HashMap<ShopMaterial, String>();
 	private final File file;
 	private final HashMap<String, ShopMaterial> identifiers = new HashMap<String, ShopMaterial>();
 	private final Pattern junkCharacters = Pattern.compile("[^A-Za-z0-9:_]");
+	private final LruCache<String, ShopMaterial> lookups = new LruCache<String, ShopMaterial>(CAPACITY);
 	private final HashMap<ShopMaterial, String> names = new HashMap<ShopMaterial, String>();
 	private final PhysicalShop plugin;
 	/**
@@ -58,11 +66,12 @@ public class MaterialConfig {
 	 * @param item name of the item to reference
 	 */
 	private void addCurrency(final String currencyIdentifier, final String item) {
-		try {
-			currencies.put(currencyIdentifier, new ShopMaterial(junkCharacters.matcher(spaces.matcher(item).replaceAll("_")).replaceAll("").toUpperCase()));
-		} catch (final InvalidMaterialException e) {
+		final ShopMaterial material = MaterialIndex.parse(normalize(item));
+		if (material == null) {
 			plugin.getLogger().severe("Configuration error for shop currency:'"+currencyIdentifier+"' for item:"+item);
+			return;
 		}
+		currencies.put(currencyIdentifier, material);
 	}
 	/**
 	 * Adds an alias to use to reference a shop material
@@ -70,19 +79,14 @@ public class MaterialConfig {
 	 * @param item name of the item to reference
 	 */
 	public void addShopMaterialAlias(String alias, final String item) {
-		alias = junkCharacters.matcher(spaces.matcher(alias).replaceAll("_")).replaceAll("").toUpperCase();
+		alias = normalize(alias);
+		lookups.clear();
 		try {
 			identifiers.put(alias,getShopMaterial(item, false));
 		} catch (final InvalidMaterialException e) {
 			plugin.getLogger().log(Level.WARNING, "Configuration error for material alias: "+alias+" mapping to: "+item, e);
 		}
 	}
-	private String checkPattern(final String string) throws InvalidMaterialException {
-		final Matcher m = plugin.getPluginConfig().getMaterialPattern().matcher(string);
-
-		if (!m.find()) throw new InvalidMaterialException();
-		return m.group(1);
-	}
 	private void defaults() {
 		if(!config.isConfigurationSection("Aliases")) {
 			config.set("Aliases.custom_name", "real item name or number");
@@ -106,6 +110,20 @@ public class MaterialConfig {
 			}
 		}
 	}
+	/**
+	 * Retrieves the material based on text matching the material pattern, without throwing if there is none.
+	 * The result for recently used text is remembered, including when there is no valid name.
+	 * @param text Text to search for a name, such as the first line of a sign
+	 * @return ShopMaterial that should be associated with the name, or null if there is no valid name
+	 */
+	public ShopMaterial findShopMaterial(final String text) {
+		ShopMaterial material = lookups.get(text);
+		if (material == null && !lookups.containsKey(text)) {
+			final Matcher m = plugin.getPluginConfig().getMaterialPattern().matcher(text);
+			lookups.put(text, material = m.find() ? lookup(m.group(1)) : null);
+		}
+		return material;
+	}
 	/**
 	 * Searches for ShopMaterial associated with currency character.
 	 * @param currencyIdentifier The character the shop will be associated with.
@@ -114,6 +132,19 @@ public class MaterialConfig {
 	public ShopMaterial getCurrency(final String currencyIdentifier) {
 		return currencies.get(currencyIdentifier);
 	}
+	/**
+	 * Finds the name to show for a shop material, working it out only the first time each material is shown
+	 * @param shopMaterial shop material to name
+	 * @return the configured name for said material, or its default human readable name
+	 */
+	public String getDisplayName(final ShopMaterial shopMaterial) {
+		String name = displayNames.get(shopMaterial);
+		if (name == null) {
+			name = isConfigured(shopMaterial) ? toString(shopMaterial) : shopMaterial.toString();
+			displayNames.put(shopMaterial, name);
+		}
+		return name;
+	}
 	/**
 	 * Retrieves the material based on a name.
 	 * @param name Name to search / interpret
@@ -130,10 +161,10 @@ public class MaterialConfig {
 	 * @return ShopMaterial that should be associated with the name.
 	 * @throws InvalidMaterialException if name is invalid
 	 */
-	public ShopMaterial getShopMaterial(String name, final boolean checkPattern) throws InvalidMaterialException {
-		name = junkCharacters.matcher(spaces.matcher(checkPattern ? checkPattern(name) : name).replaceAll("_")).replaceAll("").toUpperCase();
-		if(identifiers.containsKey(name)) return identifiers.get(name);
-		return new ShopMaterial(name);
+	public ShopMaterial getShopMaterial(final String name, final boolean checkPattern) throws InvalidMaterialException {
+		final ShopMaterial material = checkPattern ? findShopMaterial(name) : lookup(name);
+		if (material == null) throw new InvalidMaterialException();
+		return material;
 	}
 
 	/**
@@ -143,6 +174,14 @@ public class MaterialConfig {
 	public boolean isConfigured(final ShopMaterial shopMaterial) {
 		return names.containsKey(shopMaterial);
 	}
+	private ShopMaterial lookup(String name) {
+		name = normalize(name);
+		final ShopMaterial material = identifiers.get(name);
+		return material != null ? material : MaterialIndex.parse(name);
+	}
+	private String normalize(final String name) {
+		return junkCharacters.matcher(spaces.matcher(name).replaceAll("_")).replaceAll("").toUpperCase();
+	}
 	/**
 	 * Sets the name that a shop material should display
 	 * @param material material name to reference
@@ -3,6 +3,7 @@ package com.wolvereness.physicalshop.config;
 import static com.wolvereness.physicalshop.config.ConfigOptions.*;
 
 import java.util.EnumSet;
+import java.util.List;
 import java.util.regex.Pattern;
 
 import org.apache.commons.lang.ClassUtils;
@@ -17,11 +18,43 @@ import com.wolvereness.physicalshop.showcase.ShowcaseListener;
  * Licensed under GNU GPL v3
  */
 public class StandardConfig {
+	/**
+	 * What part, if any, a type of block can play in a shop
+	 */
+	public static enum ShopBlockType {
+		/**
+		 * A sign, which may be a shop
+		 */
+		SIGN,
+		/**
+		 * A block with an inventory, that may hold a shop's stock
+		 */
+		CONTAINER,
+		/**
+		 * A block with an inventory, that is not allowed to hold a shop's stock
+		 */
+		BLACKLISTED,
+		/**
+		 * Anything else
+		 */
+		IRRELEVANT
+	}
+	/**
+	 * The block types that can hold an inventory beneath a shop sign
+	 */
+	public static final List<Material> CONTAINERS = ImmutableList.of(
+			Material.CHEST,
+			Material.DISPENSER,
+			Material.FURNACE,
+			Material.BURNING_FURNACE,
+			Material.BREWING_STAND);
 	private final EnumSet<Material> blacklist = EnumSet.noneOf(Material.class);
+	private final ShopBlockType[] blockTypes = new ShopBlockType[Material.values().length];
 	private final PatternHandler buyPattern;
 	private final Pattern materialPattern;
 	private final Plugin plugin;
 	private final PatternHandler sellPattern;
+	private final EnumSet<Material> virtualStock = EnumSet.noneOf(Material.class);
 	/**
 	 * makes a new standard config, loading up defaults
 	 * @param plugin Used to get the config
@@ -34,23 +67,24 @@ public class StandardConfig {
 		if(!plugin.getConfig().isConfigurationSection(CURRENCIES)) {
 			plugin.getConfig().createSection(CURRENCIES).set("g", "Gold Ingot");
 		}
-		for (final Object matObj : plugin.getConfig().getList(SHOP_BLOCK_BLACKLIST, ImmutableList.of())) {
-			if (matObj == null) {
-				continue;
-			}
-			final Material mat;
-			if (matObj instanceof Number) {
-				mat = Material.getMaterial(((Number) matObj).intValue());
-			} else {
-				mat = Material.getMaterial(matObj.toString());
-			}
-			if (mat == null) {
-				plugin.getLogger().warning(SHOP_BLOCK_BLACKLIST + " contains an invalid entry: " + matObj);
-			} else {
-				blacklist.add(mat);
-			}
+		readMaterials(SHOP_BLOCK_BLACKLIST, blacklist);
+		readMaterials(VIRTUAL_STOCK, virtualStock);
+		for (final Material type : Material.values()) {
+			blockTypes[type.ordinal()] = ShopBlockType.IRRELEVANT;
 		}
-
+		for (final Material type : CONTAINERS) {
+			blockTypes[type.ordinal()] = blacklist.contains(type) ? ShopBlockType.BLACKLISTED : ShopBlockType.CONTAINER;
+		}
+		blockTypes[Material.SIGN_POST.ordinal()] = ShopBlockType.SIGN;
+		blockTypes[Material.WALL_SIGN.ordinal()] = ShopBlockType.SIGN;
+	}
+	/**
+	 * Classifies a type of block, without needing to look at the block's state
+	 * @param type The material to check
+	 * @return the part said type of block can play in a shop
+	 */
+	public ShopBlockType getBlockType(final Material type) {
+		return blockTypes[type.ordinal()];
 	}
 	/**
 	 * Pattern for 'buy-from-shop' (second line on signs).
@@ -60,6 +94,14 @@ public class StandardConfig {
 	public PatternHandler getBuyPatternHandler() {
 		return buyPattern;
 	}
+	/**
+	 * Checks config to get the 'linked-containers' setting
+	 *
+	 * @return the most containers a shop may be linked to, at least 1
+	 */
+	public int getLinkedContainers() {
+		return Math.max(1, plugin.getConfig().getInt(LINKED_CONTAINERS, 1));
+	}
 	/**
 	 * Pattern for material match (first line on signs)
 	 *
@@ -84,6 +126,14 @@ public class StandardConfig {
 	public boolean isAutoFillName() {
 		return plugin.getConfig().getBoolean(AUTO_FILL_NAME, true);
 	}
+	/**
+	 * Checks config to get the 'batch-trades' setting
+	 *
+	 * @return if repeated trades by a player at a shop within a tick should be made as one
+	 */
+	public boolean isBatchTrades() {
+		return plugin.getConfig().getBoolean(BATCH_TRADES, false);
+	}
 	/**
 	 * Checks the specified material to see if it is not allowed as a shop block
 	 * @param type The material to check
@@ -92,6 +142,14 @@ public class StandardConfig {
 	public boolean isBlacklistedShopType(final Material type) {
 		return blacklist.contains(type);
 	}
+	/**
+	 * Checks config to get the 'bulk-trade' setting
+	 *
+	 * @return if sneaking players should trade as many times over as they can at once
+	 */
+	public boolean isBulkTrade() {
+		return plugin.getConfig().getBoolean(BULK_TRADE, false);
+	}
 	/**
 	 * Checks config to get the 'detailed-output' setting
 	 *
@@ -148,6 +206,14 @@ public class StandardConfig {
 	public boolean isShowcaseEnabled() {
 		return plugin.getConfig().getBoolean(SHOWCASE_MODE, true) && isValidVersion();
 	}
+	/**
+	 * Checks the specified container type to see if shops over it keep their stock as counters
+	 * @param type The material to check
+	 * @return true if shops over said type are virtual shops
+	 */
+	public boolean isVirtualStockType(final Material type) {
+		return virtualStock.contains(type);
+	}
 	/**
 	 * Checks config (for override option) or references the compiled against server version
 	 * @return if the ignore version option is active, or the server version matches the supported showcase version
@@ -156,4 +222,22 @@ public class StandardConfig {
 		return plugin.getConfig().getBoolean(IGNORE_VERSION, false)
 			|| ClassUtils.getPackageName(plugin.getServer().getClass()).endsWith(ShowcaseListener.PACKAGE_VERSION);
 	}
+	private void readMaterials(final String option, final EnumSet<Material> materials) {
+		for (final Object matObj : plugin.getConfig().getList(option, ImmutableList.of())) {
+			if (matObj == null) {
+				continue;
+			}
+			final Material mat;
+			if (matObj instanceof Number) {
+				mat = Material.getMaterial(((Number) matObj).intValue());
+			} else {
+				mat = Material.getMaterial(matObj.toString());
+			}
+			if (mat == null) {
+				plugin.getLogger().warning(option + " contains an invalid entry: " + matObj);
+			} else {
+				materials.add(mat);
+			}
+		}
+	}
 }
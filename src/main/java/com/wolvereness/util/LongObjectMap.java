@@ -0,0 +1,183 @@
+package com.wolvereness.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.lang.Validate;
+
+/**
+ * A hash map from primitive longs to objects, using open addressing.
+ * Lookups do not box the key or allocate anything.<br>
+ * Null values are not permitted.
+ * @author Wolfe
+ * @param <V> the type of values
+ */
+public final class LongObjectMap<V> {
+	private static final int MINIMUM_CAPACITY = 8;
+
+	private static int capacityFor(final int size) {
+		int capacity = MINIMUM_CAPACITY;
+		while (capacity < size * 2) {
+			capacity <<= 1;
+		}
+		return capacity;
+	}
+
+	private long[] keys;
+	private int mask;
+	private int shift;
+	private int size = 0;
+	private Object[] values;
+
+	/**
+	 * Makes an empty map
+	 */
+	public LongObjectMap() {
+		this(MINIMUM_CAPACITY / 2);
+	}
+
+	/**
+	 * Makes an empty map able to hold the expected size without growing
+	 * @param expectedSize the number of entries expected
+	 */
+	public LongObjectMap(final int expectedSize) {
+		allocate(capacityFor(expectedSize));
+	}
+
+	private void allocate(final int capacity) {
+		keys = new long[capacity];
+		values = new Object[capacity];
+		mask = capacity - 1;
+		shift = 64 - Integer.numberOfTrailingZeros(capacity);
+	}
+
+	/**
+	 * Removes all entries
+	 */
+	public void clear() {
+		if (size == 0) return;
+		for (int i = 0; i < values.length; i++) {
+			values[i] = null;
+		}
+		size = 0;
+	}
+
+	/**
+	 * @param key key to check
+	 * @return true if there is a value for said key
+	 */
+	public boolean containsKey(final long key) {
+		return values[indexOf(key)] != null;
+	}
+
+	/**
+	 * @param key key to look up
+	 * @return the value for said key, or null if none
+	 */
+	@SuppressWarnings("unchecked")
+	public V get(final long key) {
+		return (V) values[indexOf(key)];
+	}
+
+	private int hash(final long key) {
+		return (int) ((key * 0x9E3779B97F4A7C15L) >>> shift);
+	}
+
+	/**
+	 * Finds the slot for a key; either the slot holding it, or the empty slot that ends its probe
+	 */
+	private int indexOf(final long key) {
+		int index = hash(key);
+		while (values[index] != null && keys[index] != key) {
+			index = (index + 1) & mask;
+		}
+		return index;
+	}
+
+	/**
+	 * @return true if there are no entries
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * @param key key to use
+	 * @param value value to store, not null
+	 * @return the previous value for said key, or null if none
+	 */
+	@SuppressWarnings("unchecked")
+	public V put(final long key, final V value) {
+		Validate.notNull(value, "Value cannot be null");
+		int index = indexOf(key);
+		final V old = (V) values[index];
+		if (old == null) {
+			if ((size + 1) * 2 > values.length) {
+				rehash(values.length << 1);
+				index = indexOf(key);
+			}
+			keys[index] = key;
+			size++;
+		}
+		values[index] = value;
+		return old;
+	}
+
+	private void rehash(final int capacity) {
+		final long[] oldKeys = keys;
+		final Object[] oldValues = values;
+		allocate(capacity);
+		for (int i = 0; i < oldValues.length; i++) {
+			if (oldValues[i] == null) {
+				continue;
+			}
+			final int index = indexOf(oldKeys[i]);
+			keys[index] = oldKeys[i];
+			values[index] = oldValues[i];
+		}
+	}
+
+	/**
+	 * @param key key to remove
+	 * @return the value that was removed, or null if none
+	 */
+	@SuppressWarnings("unchecked")
+	public V remove(final long key) {
+		int index = indexOf(key);
+		final V old = (V) values[index];
+		if (old == null) return null;
+		size--;
+		// Shift later entries of the probe back, so no probe passes over an empty slot
+		for (int next = (index + 1) & mask; values[next] != null; next = (next + 1) & mask) {
+			final int home = hash(keys[next]);
+			if (((next - home) & mask) >= ((next - index) & mask)) {
+				keys[index] = keys[next];
+				values[index] = values[next];
+				index = next;
+			}
+		}
+		values[index] = null;
+		return old;
+	}
+
+	/**
+	 * @return the number of entries
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return a copy of the values in this map
+	 */
+	@SuppressWarnings("unchecked")
+	public List<V> values() {
+		final List<V> list = new ArrayList<V>(size);
+		for (final Object value : values) {
+			if (value != null) {
+				list.add((V) value);
+			}
+		}
+		return list;
+	}
+}
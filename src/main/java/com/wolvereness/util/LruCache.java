@@ -0,0 +1,29 @@
+package com.wolvereness.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A map that holds at most a fixed number of entries, dropping the least recently used.
+ * @author Wolfe
+ * @param <K> the type of keys
+ * @param <V> the type of values
+ */
+public class LruCache<K, V> extends LinkedHashMap<K, V> {
+	private static final long serialVersionUID = 1L;
+
+	private final int capacity;
+
+	/**
+	 * @param capacity the most entries to keep
+	 */
+	public LruCache(final int capacity) {
+		super(16, 0.75f, true);
+		this.capacity = capacity;
+	}
+
+	@Override
+	protected boolean removeEldestEntry(final Map.Entry<K, V> eldest) {
+		return size() > capacity;
+	}
+}